@@ -0,0 +1,265 @@
+package cn.bfay.cache.loadtest;
+
+import cn.bfay.cache.redis.BloomFilterHelper;
+import cn.bfay.cache.redis.OffHeapCache;
+import cn.bfay.cache.redis.RedisKeyTemplate;
+import cn.bfay.cache.redis.RedisLock;
+import cn.bfay.cache.redis.RedisUtils;
+import com.google.common.hash.Funnels;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 缓存压测.
+ * 按{@link Workload}生成zipf分布的读、写、加锁读改写请求，通过RedisUtils、RedisLock和布隆过滤器访问redis，
+ * 输出吞吐量、各类请求的延迟百分位、命中率和每个请求的redis命令数，用于评估过期时间、本地缓存、锁等配置的影响.
+ * 用法: mvn -f load-test/pom.xml compile exec:java -Dexec.args="--threads=32 --zipf=1.1 --local=true"
+ *
+ * @author wangjiannan
+ */
+public class LoadTest {
+    private static final String BLOOM_KEY = "loadtest:bloom";
+    private static final RedisKeyTemplate ITEM_KEY = RedisKeyTemplate.compile("item:%d").withNamespace("loadtest");
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Workload workload;
+    private final ZipfGenerator zipf;
+    private final char[] filler;
+    private final RedisUtils redisUtils = new RedisUtils();
+    private final BloomFilterHelper<Long> bloomFilterHelper;
+
+    private LoadTest(Workload workload) {
+        this.workload = workload;
+        this.zipf = new ZipfGenerator(workload.keys, workload.zipf);
+        this.filler = new char[workload.valueMax];
+        Arrays.fill(filler, 'x');
+        this.bloomFilterHelper = new BloomFilterHelper<>(Funnels.longFunnel(), workload.keys, 0.01);
+    }
+
+    /**
+     * 单个线程的统计.
+     */
+    private static final class Stats {
+        private final LatencyHistogram request = new LatencyHistogram();
+        private final LatencyHistogram read = new LatencyHistogram();
+        private final LatencyHistogram write = new LatencyHistogram();
+        private final LatencyHistogram lock = new LatencyHistogram();
+        private long reads;
+        private long hits;
+        private long loads;
+        private long bloomRejected;
+        private long lockFailures;
+
+        private void merge(Stats other) {
+            request.merge(other.request);
+            read.merge(other.read);
+            write.merge(other.write);
+            lock.merge(other.lock);
+            reads += other.reads;
+            hits += other.hits;
+            loads += other.loads;
+            bloomRejected += other.bloomRejected;
+            lockFailures += other.lockFailures;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Workload workload = Workload.parse(args);
+        System.out.println("workload: " + workload);
+        MiniRedisServer server = workload.redis.isEmpty() ? new MiniRedisServer() : null;
+        String host = server == null ? workload.redis.substring(0, workload.redis.lastIndexOf(':')) : "127.0.0.1";
+        int port = server == null ? Integer.parseInt(workload.redis.substring(workload.redis.lastIndexOf(':') + 1))
+            : server.getPort();
+
+        GenericObjectPoolConfig<?> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(workload.threads * 2);
+        poolConfig.setMaxIdle(workload.threads * 2);
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port),
+            LettucePoolingClientConfiguration.builder().poolConfig(poolConfig).build());
+        factory.afterPropertiesSet();
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(factory);
+        OffHeapCache localCache = workload.local
+            ? new OffHeapCache(workload.localCapacity * 1024L * 1024L, 16, 256, workload.localTtl,
+            OffHeapCache.Storage.DIRECT, null)
+            : null;
+
+        LoadTest loadTest = new LoadTest(workload);
+        loadTest.redisUtils.setFactory(factory);
+        loadTest.redisUtils.setStringRedisTemplate(stringRedisTemplate);
+        loadTest.redisUtils.setLocalCache(localCache);
+        RedisUtils.init();
+        try {
+            loadTest.prepare();
+            if (workload.warmup > 0) {
+                loadTest.run(workload.warmup);
+            }
+            long commandsBefore = commandCount(server, stringRedisTemplate);
+            long start = System.nanoTime();
+            Stats stats = loadTest.run(workload.duration);
+            long elapsed = System.nanoTime() - start;
+            long commands = commandCount(server, stringRedisTemplate) - commandsBefore;
+            report(stats, elapsed, commands);
+        } finally {
+            factory.destroy();
+            if (localCache != null) {
+                localCache.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * 清空上次的数据，把所有存在的id加入布隆过滤器.
+     */
+    private void prepare() {
+        RedisUtils.delete(BLOOM_KEY);
+        if (workload.bloom) {
+            for (long id = 0; id < workload.keys; id++) {
+                redisUtils.addByBloomFilter(bloomFilterHelper, BLOOM_KEY, id);
+            }
+        }
+    }
+
+    private Stats run(int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+        Stats[] results = new Stats[workload.threads];
+        for (int i = 0; i < workload.threads; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> results[index] = loop(deadline), "load-test-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        Stats total = new Stats();
+        for (int i = 0; i < threads.size(); i++) {
+            threads.get(i).join();
+            total.merge(results[i]);
+        }
+        return total;
+    }
+
+    private Stats loop(long deadline) {
+        Stats stats = new Stats();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long start;
+        while ((start = System.nanoTime()) < deadline) {
+            double r = random.nextDouble();
+            LatencyHistogram histogram;
+            if (r < workload.lockRatio) {
+                lockedUpdate(stats, zipf.next());
+                histogram = stats.lock;
+            } else if (r < workload.lockRatio + workload.writeRatio) {
+                RedisUtils.setValue(ITEM_KEY.render(zipf.next()), randomValue(), workload.ttl);
+                histogram = stats.write;
+            } else {
+                boolean missing = random.nextDouble() < workload.missingRatio;
+                read(stats, missing ? workload.keys + zipf.next() : zipf.next());
+                histogram = stats.read;
+            }
+            long nanos = System.nanoTime() - start;
+            histogram.record(nanos);
+            stats.request.record(nanos);
+        }
+        return stats;
+    }
+
+    /**
+     * 缓存旁路读，未命中时调用loader并写回.
+     */
+    private void read(Stats stats, long id) {
+        stats.reads++;
+        if (workload.bloom && !redisUtils.includeByBloomFilter(bloomFilterHelper, BLOOM_KEY, id)) {
+            stats.bloomRejected++;
+            return;
+        }
+        String key = ITEM_KEY.render(id);
+        if (RedisUtils.getValue(key) != null) {
+            stats.hits++;
+            return;
+        }
+        stats.loads++;
+        String value = load(id);
+        if (value != null) {
+            RedisUtils.setValue(key, value, workload.ttl);
+        }
+    }
+
+    private void lockedUpdate(Stats stats, long id) {
+        String key = ITEM_KEY.render(id);
+        if (!RedisLock.lock(key, workload.lockExpire, workload.lockRetries)) {
+            stats.lockFailures++;
+            return;
+        }
+        try {
+            RedisUtils.getValue(key);
+            RedisUtils.setValue(key, randomValue(), workload.ttl);
+        } finally {
+            RedisLock.unlock(key);
+        }
+    }
+
+    /**
+     * 模拟数据源，耗时按指数分布，不存在的id返回null.
+     */
+    private String load(long id) {
+        if (workload.loaderMillis > 0) {
+            double millis = -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * workload.loaderMillis;
+            LockSupport.parkNanos((long) (millis * 1_000_000));
+        }
+        return id < workload.keys ? randomValue() : null;
+    }
+
+    private String randomValue() {
+        double size = workload.valueMedian * Math.exp(workload.valueSigma * ThreadLocalRandom.current().nextGaussian());
+        return new String(filler, 0, (int) Math.max(1, Math.min(workload.valueMax, size)));
+    }
+
+    private static long commandCount(MiniRedisServer server, StringRedisTemplate template) {
+        if (server != null) {
+            return server.getCommandCount();
+        }
+        Properties info = template.execute((RedisCallback<Properties>) connection ->
+            connection.serverCommands().info("stats"));
+        return info == null ? 0 : Long.parseLong(info.getProperty("total_commands_processed", "0"));
+    }
+
+    private static void report(Stats stats, long elapsedNanos, long commands) {
+        long requests = stats.request.getCount();
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("requests: %d, throughput: %.0f req/s%n", requests, requests / seconds);
+        System.out.printf("redis commands: %d, per request: %.3f%n", commands,
+            (double) commands / Math.max(1, requests));
+        System.out.printf("hit ratio: %.2f%% (reads %d, hits %d, loads %d, bloom rejected %d), lock failures: %d%n",
+            stats.hits * 100.0 / Math.max(1, stats.reads), stats.reads, stats.hits, stats.loads, stats.bloomRejected,
+            stats.lockFailures);
+        System.out.printf("%-8s %10s %10s %10s %10s %10s %10s%n", "latency", "count", "p50(ms)", "p90(ms)", "p99(ms)",
+            "p99.9(ms)", "max(ms)");
+        printLatency("request", stats.request);
+        printLatency("read", stats.read);
+        printLatency("write", stats.write);
+        printLatency("lock", stats.lock);
+    }
+
+    private static void printLatency(String name, LatencyHistogram histogram) {
+        StringBuilder sb = new StringBuilder(String.format("%-8s %10d", name, histogram.getCount()));
+        for (double percentile : PERCENTILES) {
+            sb.append(String.format(" %10.3f", histogram.percentile(percentile) / 1e6));
+        }
+        sb.append(String.format(" %10.3f", histogram.getMax() / 1e6));
+        System.out.println(sb);
+    }
+}
@@ -0,0 +1,524 @@
+package cn.bfay.cache.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的最小redis，只实现压测用到的命令，单线程语义(所有命令串行执行)，过期为惰性删除.
+ * 按RESP2应答，HELLO返回错误，lettuce会回退到RESP2.
+ * 记录收到的数据命令数，用于计算每个请求的redis操作次数.
+ *
+ * @author wangjiannan
+ */
+public class MiniRedisServer implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MiniRedisServer.class);
+
+    private static final Set<String> HANDSHAKE_COMMANDS =
+        new HashSet<>(Arrays.asList("HELLO", "AUTH", "CLIENT", "SELECT", "PING", "QUIT"));
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final ServerSocket serverSocket;
+    private final Map<String, Entry> data = new HashMap<>();
+    private final Set<Socket> clients = new HashSet<>();
+    private final AtomicLong commands = new AtomicLong();
+    private volatile boolean closed;
+
+    private static final class Entry {
+        private Object value;
+        private long expireAt;
+
+        private Entry(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static final class RedisError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private RedisError(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * 在随机端口启动.
+     */
+    public MiniRedisServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "mini-redis-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 收到的数据命令数，不含握手命令.
+     *
+     * @return long
+     */
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        synchronized (clients) {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                synchronized (clients) {
+                    clients.add(socket);
+                }
+                Thread handler = new Thread(() -> serve(socket), "mini-redis-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("mini redis接受连接失败", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (InputStream in = new BufferedInputStream(socket.getInputStream());
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            while (true) {
+                List<byte[]> args = readCommand(in);
+                String name = new String(args.get(0), StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+                if (!HANDSHAKE_COMMANDS.contains(name)) {
+                    commands.incrementAndGet();
+                }
+                Object reply;
+                try {
+                    synchronized (data) {
+                        reply = execute(name, args);
+                    }
+                } catch (RedisError e) {
+                    reply = e;
+                }
+                writeReply(out, reply);
+                // pipeline中的命令全部处理完再刷出
+                if (in.available() == 0) {
+                    out.flush();
+                }
+                if ("QUIT".equals(name)) {
+                    return;
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            // 客户端断开
+        } catch (IOException e) {
+            if (!closed) {
+                log.warn("mini redis连接异常", e);
+            }
+        } finally {
+            synchronized (clients) {
+                clients.remove(socket);
+            }
+        }
+    }
+
+    private Object execute(String name, List<byte[]> args) {
+        switch (name) {
+            case "HELLO":
+                throw new RedisError("ERR unknown command 'HELLO'");
+            case "PING":
+                return "PONG";
+            case "AUTH":
+            case "CLIENT":
+            case "SELECT":
+            case "QUIT":
+                return "OK";
+            case "FLUSHALL":
+            case "FLUSHDB":
+                data.clear();
+                return "OK";
+            case "DBSIZE":
+                return (long) data.size();
+            case "GET":
+                return getString(key(args, 1));
+            case "MGET": {
+                List<Object> values = new ArrayList<>();
+                for (int i = 1; i < args.size(); i++) {
+                    Entry entry = live(key(args, i));
+                    values.add(entry != null && entry.value instanceof byte[] ? entry.value : null);
+                }
+                return values;
+            }
+            case "SET":
+                return set(args);
+            case "SETNX":
+                return set(Arrays.asList(args.get(0), args.get(1), args.get(2), bytes("NX"))) == null ? 0L : 1L;
+            case "SETEX":
+                return set(Arrays.asList(args.get(0), args.get(1), args.get(3), bytes("EX"), args.get(2)));
+            case "PSETEX":
+                return set(Arrays.asList(args.get(0), args.get(1), args.get(3), bytes("PX"), args.get(2)));
+            case "GETSET": {
+                byte[] old = getString(key(args, 1));
+                data.put(key(args, 1), new Entry(args.get(2)));
+                return old;
+            }
+            case "DEL":
+            case "UNLINK": {
+                long removed = 0;
+                for (int i = 1; i < args.size(); i++) {
+                    if (live(key(args, i)) != null) {
+                        data.remove(key(args, i));
+                        removed++;
+                    }
+                }
+                return removed;
+            }
+            case "EXISTS": {
+                long count = 0;
+                for (int i = 1; i < args.size(); i++) {
+                    if (live(key(args, i)) != null) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+            case "EXPIRE":
+                return expireAt(key(args, 1), System.currentTimeMillis() + number(args, 2) * 1000);
+            case "PEXPIRE":
+                return expireAt(key(args, 1), System.currentTimeMillis() + number(args, 2));
+            case "EXPIREAT":
+                return expireAt(key(args, 1), number(args, 2) * 1000);
+            case "PEXPIREAT":
+                return expireAt(key(args, 1), number(args, 2));
+            case "TTL":
+            case "PTTL": {
+                Entry entry = live(key(args, 1));
+                if (entry == null) {
+                    return -2L;
+                }
+                if (entry.expireAt == 0) {
+                    return -1L;
+                }
+                long millis = entry.expireAt - System.currentTimeMillis();
+                return "TTL".equals(name) ? (millis + 999) / 1000 : millis;
+            }
+            case "INCR":
+                return incrBy(key(args, 1), 1);
+            case "INCRBY":
+                return incrBy(key(args, 1), number(args, 2));
+            case "DECR":
+                return incrBy(key(args, 1), -1);
+            case "DECRBY":
+                return incrBy(key(args, 1), -number(args, 2));
+            case "SETBIT":
+                return setBit(key(args, 1), number(args, 2), number(args, 3) == 1);
+            case "GETBIT": {
+                byte[] value = getString(key(args, 1));
+                long offset = number(args, 2);
+                int index = (int) (offset >>> 3);
+                return value == null || index >= value.length ? 0L : (long) ((value[index] >> (7 - (offset & 7))) & 1);
+            }
+            case "BITCOUNT": {
+                byte[] value = getString(key(args, 1));
+                long count = 0;
+                if (value != null) {
+                    for (byte b : value) {
+                        count += Integer.bitCount(b & 0xFF);
+                    }
+                }
+                return count;
+            }
+            case "HGET": {
+                Map<String, byte[]> hash = getHash(key(args, 1), false);
+                return hash == null ? null : hash.get(key(args, 2));
+            }
+            case "HMGET": {
+                Map<String, byte[]> hash = getHash(key(args, 1), false);
+                List<Object> values = new ArrayList<>();
+                for (int i = 2; i < args.size(); i++) {
+                    values.add(hash == null ? null : hash.get(key(args, i)));
+                }
+                return values;
+            }
+            case "HSET":
+            case "HMSET": {
+                Map<String, byte[]> hash = getHash(key(args, 1), true);
+                long added = 0;
+                for (int i = 2; i + 1 < args.size(); i += 2) {
+                    if (hash.put(key(args, i), args.get(i + 1)) == null) {
+                        added++;
+                    }
+                }
+                return "HMSET".equals(name) ? "OK" : added;
+            }
+            case "HDEL": {
+                Map<String, byte[]> hash = getHash(key(args, 1), false);
+                long removed = 0;
+                for (int i = 2; hash != null && i < args.size(); i++) {
+                    if (hash.remove(key(args, i)) != null) {
+                        removed++;
+                    }
+                }
+                if (hash != null && hash.isEmpty()) {
+                    data.remove(key(args, 1));
+                }
+                return removed;
+            }
+            case "HGETALL": {
+                Map<String, byte[]> hash = getHash(key(args, 1), false);
+                List<Object> values = new ArrayList<>();
+                if (hash != null) {
+                    hash.forEach((field, value) -> {
+                        values.add(field.getBytes(StandardCharsets.ISO_8859_1));
+                        values.add(value);
+                    });
+                }
+                return values;
+            }
+            default:
+                throw new RedisError("ERR unknown command '" + name + "'");
+        }
+    }
+
+    private Object set(List<byte[]> args) {
+        String key = key(args, 1);
+        long expireAt = 0;
+        boolean nx = false;
+        boolean xx = false;
+        for (int i = 3; i < args.size(); i++) {
+            String option = new String(args.get(i), StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+            if ("NX".equals(option)) {
+                nx = true;
+            } else if ("XX".equals(option)) {
+                xx = true;
+            } else if ("EX".equals(option)) {
+                expireAt = System.currentTimeMillis() + number(args, ++i) * 1000;
+            } else if ("PX".equals(option)) {
+                expireAt = System.currentTimeMillis() + number(args, ++i);
+            } else {
+                throw new RedisError("ERR syntax error");
+            }
+        }
+        boolean exists = live(key) != null;
+        if (nx && exists || xx && !exists) {
+            return null;
+        }
+        Entry entry = new Entry(args.get(2));
+        entry.expireAt = expireAt;
+        data.put(key, entry);
+        return "OK";
+    }
+
+    private long expireAt(String key, long expireAt) {
+        Entry entry = live(key);
+        if (entry == null) {
+            return 0L;
+        }
+        entry.expireAt = expireAt;
+        return 1L;
+    }
+
+    private long incrBy(String key, long delta) {
+        byte[] value = getString(key);
+        long result;
+        try {
+            result = (value == null ? 0 : Long.parseLong(new String(value, StandardCharsets.US_ASCII))) + delta;
+        } catch (NumberFormatException e) {
+            throw new RedisError("ERR value is not an integer or out of range");
+        }
+        Entry entry = live(key);
+        byte[] raw = bytes(String.valueOf(result));
+        if (entry == null) {
+            data.put(key, new Entry(raw));
+        } else {
+            entry.value = raw;
+        }
+        return result;
+    }
+
+    private long setBit(String key, long offset, boolean bit) {
+        Entry entry = live(key);
+        byte[] value = entry == null ? new byte[0] : string(entry);
+        int index = (int) (offset >>> 3);
+        if (index >= value.length) {
+            value = Arrays.copyOf(value, index + 1);
+        }
+        int mask = 1 << (7 - (offset & 7));
+        long old = (value[index] & mask) == 0 ? 0L : 1L;
+        value[index] = (byte) (bit ? value[index] | mask : value[index] & ~mask);
+        if (entry == null) {
+            data.put(key, new Entry(value));
+        } else {
+            entry.value = value;
+        }
+        return old;
+    }
+
+    private byte[] getString(String key) {
+        Entry entry = live(key);
+        return entry == null ? null : string(entry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, byte[]> getHash(String key, boolean create) {
+        Entry entry = live(key);
+        if (entry == null) {
+            if (!create) {
+                return null;
+            }
+            entry = new Entry(new LinkedHashMap<String, byte[]>());
+            data.put(key, entry);
+        }
+        if (!(entry.value instanceof Map)) {
+            throw new RedisError("WRONGTYPE Operation against a key holding the wrong kind of value");
+        }
+        return (Map<String, byte[]>) entry.value;
+    }
+
+    private static byte[] string(Entry entry) {
+        if (!(entry.value instanceof byte[])) {
+            throw new RedisError("WRONGTYPE Operation against a key holding the wrong kind of value");
+        }
+        return (byte[]) entry.value;
+    }
+
+    private Entry live(String key) {
+        Entry entry = data.get(key);
+        if (entry != null && entry.expireAt != 0 && entry.expireAt <= System.currentTimeMillis()) {
+            data.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private static String key(List<byte[]> args, int index) {
+        if (index >= args.size()) {
+            throw new RedisError("ERR wrong number of arguments");
+        }
+        return new String(args.get(index), StandardCharsets.ISO_8859_1);
+    }
+
+    private static long number(List<byte[]> args, int index) {
+        try {
+            return Long.parseLong(key(args, index));
+        } catch (NumberFormatException e) {
+            throw new RedisError("ERR value is not an integer or out of range");
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type != '*') {
+            throw type < 0 ? new EOFException() : new IOException("只支持RESP数组格式的命令");
+        }
+        int count = (int) readLong(in);
+        List<byte[]> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("命令参数必须是bulk string");
+            }
+            byte[] arg = new byte[(int) readLong(in)];
+            int read = 0;
+            while (read < arg.length) {
+                int n = in.read(arg, read, arg.length - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            in.read();
+            in.read();
+            args.add(arg);
+        }
+        return args;
+    }
+
+    private static long readLong(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            if (c == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+
+    private static void writeReply(OutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write(bytes("$-1"));
+            out.write(CRLF);
+        } else if (reply instanceof RedisError) {
+            out.write('-');
+            out.write(bytes(((RedisError) reply).getMessage()));
+            out.write(CRLF);
+        } else if (reply instanceof String) {
+            out.write('+');
+            out.write(bytes((String) reply));
+            out.write(CRLF);
+        } else if (reply instanceof Long) {
+            out.write(':');
+            out.write(bytes(reply.toString()));
+            out.write(CRLF);
+        } else if (reply instanceof byte[]) {
+            byte[] value = (byte[]) reply;
+            out.write('$');
+            out.write(bytes(String.valueOf(value.length)));
+            out.write(CRLF);
+            out.write(value);
+            out.write(CRLF);
+        } else {
+            List<?> values = (List<?>) reply;
+            out.write('*');
+            out.write(bytes(String.valueOf(values.size())));
+            out.write(CRLF);
+            for (Object value : values) {
+                writeReply(out, value);
+            }
+        }
+    }
+}
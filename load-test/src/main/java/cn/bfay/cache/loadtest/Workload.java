@@ -0,0 +1,153 @@
+package cn.bfay.cache.loadtest;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.StringJoiner;
+
+/**
+ * 压测负载配置，通过 --name=value 形式的命令行参数覆盖默认值.
+ *
+ * @author wangjiannan
+ */
+public class Workload {
+    /**
+     * 外部redis地址 host:port，为空时使用进程内的{@link MiniRedisServer}.
+     */
+    String redis = "";
+    /**
+     * 并发线程数.
+     */
+    int threads = 16;
+    /**
+     * 预热时间，秒，不计入结果.
+     */
+    int warmup = 5;
+    /**
+     * 压测时间，秒.
+     */
+    int duration = 30;
+    /**
+     * 存在的key数量.
+     */
+    int keys = 100000;
+    /**
+     * zipf分布的指数，越大越集中在热点key，0为均匀分布.
+     */
+    double zipf = 0.99;
+    /**
+     * 写请求比例.
+     */
+    double writeRatio = 0.05;
+    /**
+     * 加锁读改写请求比例.
+     */
+    double lockRatio = 0.01;
+    /**
+     * 读请求中访问不存在的id的比例，即穿透流量.
+     */
+    double missingRatio = 0.0;
+    /**
+     * 读之前是否先用布隆过滤器判断id是否存在.
+     */
+    boolean bloom = false;
+    /**
+     * 值大小的中位数，字节，按对数正态分布生成.
+     */
+    int valueMedian = 512;
+    /**
+     * 值大小对数正态分布的sigma.
+     */
+    double valueSigma = 1.0;
+    /**
+     * 值大小上限，字节.
+     */
+    int valueMax = 64 * 1024;
+    /**
+     * 缓存未命中时加载数据的平均耗时，毫秒，按指数分布生成.
+     */
+    double loaderMillis = 2.0;
+    /**
+     * 缓存过期时间，秒.
+     */
+    long ttl = 300;
+    /**
+     * 加锁的过期时间，秒.
+     */
+    long lockExpire = 5;
+    /**
+     * 获取锁的最大重试次数.
+     */
+    long lockRetries = 1;
+    /**
+     * 是否启用本地缓存.
+     */
+    boolean local = false;
+    /**
+     * 本地缓存容量，MB.
+     */
+    int localCapacity = 64;
+    /**
+     * 本地缓存过期时间，毫秒.
+     */
+    long localTtl = 5000;
+
+    /**
+     * 解析命令行参数.
+     *
+     * @param args --name=value
+     * @return Workload
+     */
+    public static Workload parse(String[] args) {
+        Workload workload = new Workload();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (!arg.startsWith("--") || index < 0) {
+                throw new IllegalArgumentException("参数格式为 --name=value: " + arg);
+            }
+            workload.set(arg.substring(2, index), arg.substring(index + 1));
+        }
+        double readRatio = 1 - workload.writeRatio - workload.lockRatio;
+        if (readRatio < 0 || workload.missingRatio < 0 || workload.missingRatio > 1) {
+            throw new IllegalArgumentException("比例配置错误: " + workload);
+        }
+        return workload;
+    }
+
+    private void set(String name, String value) {
+        try {
+            Field field = Workload.class.getDeclaredField(name);
+            Class<?> type = field.getType();
+            if (type == int.class) {
+                field.setInt(this, Integer.parseInt(value));
+            } else if (type == long.class) {
+                field.setLong(this, Long.parseLong(value));
+            } else if (type == double.class) {
+                field.setDouble(this, Double.parseDouble(value));
+            } else if (type == boolean.class) {
+                field.setBoolean(this, Boolean.parseBoolean(value));
+            } else {
+                field.set(this, value);
+            }
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("未知参数: " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(" ");
+        for (Field field : Workload.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            try {
+                joiner.add(field.getName() + "=" + field.get(this));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return joiner.toString();
+    }
+}
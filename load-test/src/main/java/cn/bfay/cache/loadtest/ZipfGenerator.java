@@ -0,0 +1,42 @@
+package cn.bfay.cache.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * zipf分布的随机数，返回[0, n)，0最热.
+ * 预先计算累积分布，采样时二分查找.
+ *
+ * @author wangjiannan
+ */
+public class ZipfGenerator {
+    private final double[] cdf;
+
+    /**
+     * 构造.
+     *
+     * @param n        取值个数
+     * @param exponent 指数，0为均匀分布
+     */
+    public ZipfGenerator(int n, double exponent) {
+        this.cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+    }
+
+    /**
+     * 采样.
+     *
+     * @return [0, n)
+     */
+    public int next() {
+        int index = Arrays.binarySearch(cdf, ThreadLocalRandom.current().nextDouble());
+        return Math.min(cdf.length - 1, index < 0 ? -index - 1 : index);
+    }
+}
@@ -26,7 +26,7 @@ public class BloomFilterHelper<T> {
     int[] murmurHashOffset(T value) {
         int[] offset = new int[numHashFunctions];
 
-        long hash64 = Hashing.murmur3_128().hashObject(value, funnel).asLong();
+        long hash64 = murmurHash64(funnel, value);
         int hash1 = (int) hash64;
         int hash2 = (int) (hash64 >>> 32);
         for (int i = 1; i <= numHashFunctions; i++) {
@@ -40,6 +40,18 @@ public class BloomFilterHelper<T> {
         return offset;
     }
 
+    /**
+     * 64位murmur3 hash，布隆过滤器和布谷鸟过滤器共用.
+     *
+     * @param funnel funnel
+     * @param value  值
+     * @param <T>    类型
+     * @return long
+     */
+    static <T> long murmurHash64(Funnel<? super T> funnel, T value) {
+        return Hashing.murmur3_128().hashObject(value, funnel).asLong();
+    }
+
     /**
      * 计算bit数组的长度
      */
@@ -0,0 +1,317 @@
+package cn.bfay.cache.redis;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CacheProperties.
+ *
+ * @author wangjiannan
+ */
+@Data
+@ConfigurationProperties(prefix = "bfay.cache")
+public class CacheProperties {
+    /**
+     * 读写路由.
+     */
+    private Routing routing = new Routing();
+
+    /**
+     * key.
+     */
+    private Key key = new Key();
+
+    /**
+     * 启动预热.
+     */
+    private WarmUp warmUp = new WarmUp();
+
+    /**
+     * 本地缓存.
+     */
+    private Local local = new Local();
+
+    /**
+     * 命令超时.
+     */
+    private Timeout timeout = new Timeout();
+
+    /**
+     * 熔断.
+     */
+    private Breaker breaker = new Breaker();
+
+    /**
+     * 对冲读.
+     */
+    private Hedge hedge = new Hedge();
+
+    /**
+     * 写后缓存.
+     */
+    private WriteBehind writeBehind = new WriteBehind();
+
+    /**
+     * 读写路由配置.
+     */
+    @Data
+    public static class Routing {
+        /**
+         * 读操作的节点选择策略，为空时全部走主节点.
+         * 可选：MASTER, MASTER_PREFERRED, REPLICA, REPLICA_PREFERRED, NEAREST, ANY，忽略大小写和下划线
+         */
+        private String readFrom;
+    }
+
+    /**
+     * key配置.
+     */
+    @Data
+    public static class Key {
+        /**
+         * 全局前缀，作用于{@link RedisKeyTemplate}生成的key和锁的key.
+         */
+        private String prefix;
+    }
+
+    /**
+     * 启动预热配置.
+     */
+    @Data
+    public static class WarmUp {
+        /**
+         * 是否开启.
+         */
+        private boolean enabled = false;
+
+        /**
+         * 序列化器预热次数.
+         */
+        private int codecIterations = 2000;
+
+        /**
+         * 预读的key匹配模式.
+         */
+        private List<String> prefetchPatterns = new ArrayList<>();
+
+        /**
+         * 每个匹配模式最多预读的key个数.
+         */
+        private int prefetchLimit = 1000;
+    }
+
+    /**
+     * 本地堆外缓存配置.
+     */
+    @Data
+    public static class Local {
+        /**
+         * 是否开启.
+         */
+        private boolean enabled = false;
+
+        /**
+         * 总容量.
+         */
+        private DataSize capacity = DataSize.ofMegabytes(256);
+
+        /**
+         * 分段数.
+         */
+        private int segments = 16;
+
+        /**
+         * 块大小.
+         */
+        private DataSize blockSize = DataSize.ofBytes(256);
+
+        /**
+         * 本地过期时间，即与redis不一致的最长时间.
+         */
+        private Duration ttl = Duration.ofSeconds(60);
+
+        /**
+         * 存储方式.
+         */
+        private OffHeapCache.Storage storage = OffHeapCache.Storage.DIRECT;
+
+        /**
+         * MAPPED存储的文件路径.
+         */
+        private String file;
+
+        /**
+         * 快照文件路径，为空时不做快照.
+         */
+        private String snapshotFile;
+
+        /**
+         * 快照的最大条目数.
+         */
+        private int snapshotMaxEntries = 100000;
+
+        /**
+         * 快照有效期，重启超过该时间后不再恢复，恢复的条目首次命中时会从redis校验.
+         */
+        private Duration snapshotTtl = Duration.ofMinutes(10);
+    }
+
+    /**
+     * 命令超时配置，未配置时使用spring.redis.timeout.
+     */
+    @Data
+    public static class Timeout {
+        /**
+         * 读命令超时.
+         */
+        private Duration read;
+
+        /**
+         * 写命令超时.
+         */
+        private Duration write;
+    }
+
+    /**
+     * 熔断配置.
+     */
+    @Data
+    public static class Breaker {
+        /**
+         * 是否开启.
+         */
+        private boolean enabled = false;
+
+        /**
+         * 滑动窗口大小(调用次数).
+         */
+        private int windowSize = 100;
+
+        /**
+         * 计算比例前的最少调用次数.
+         */
+        private int minimumCalls = 20;
+
+        /**
+         * 失败率阈值，百分比.
+         */
+        private int failureRateThreshold = 50;
+
+        /**
+         * 慢调用阈值.
+         */
+        private Duration slowCallDuration = Duration.ofMillis(200);
+
+        /**
+         * 慢调用率阈值，百分比.
+         */
+        private int slowCallRateThreshold = 80;
+
+        /**
+         * 打开持续时间.
+         */
+        private Duration openDuration = Duration.ofSeconds(10);
+
+        /**
+         * 半开时的探测次数.
+         */
+        private int halfOpenCalls = 5;
+
+        /**
+         * 打开期间写操作的处理策略.
+         */
+        private RedisCircuitBreaker.WritePolicy writePolicy = RedisCircuitBreaker.WritePolicy.DROP;
+
+        /**
+         * QUEUE策略的队列大小.
+         */
+        private int writeQueueSize = 10000;
+    }
+
+    /**
+     * 对冲读配置，作用于getValue和mapGetValue.
+     */
+    @Data
+    public static class Hedge {
+        /**
+         * 是否开启.
+         */
+        private boolean enabled = false;
+
+        /**
+         * 对冲连接的读路由，取值同{@link Routing#getReadFrom()}，应与主连接不同，默认优先读副本.
+         */
+        private String readFrom = "REPLICA_PREFERRED";
+
+        /**
+         * 触发对冲的延迟百分位.
+         */
+        private int percentile = 95;
+
+        /**
+         * 对冲阈值下限.
+         */
+        private Duration minDelay = Duration.ofMillis(2);
+
+        /**
+         * 对冲阈值上限，采样不足时使用.
+         */
+        private Duration maxDelay = Duration.ofMillis(50);
+
+        /**
+         * 对冲预算，占读请求的百分比.
+         */
+        private int budgetPercent = 5;
+
+        /**
+         * 最多累积的对冲次数.
+         */
+        private int maxBurst = 20;
+    }
+
+    /**
+     * 写后缓存配置，需要容器中存在{@link CacheWriter}.
+     */
+    @Data
+    public static class WriteBehind {
+        /**
+         * 是否开启.
+         */
+        private boolean enabled = false;
+
+        /**
+         * redis写入方式.
+         */
+        private RedisWriteBehind.RedisMode redisMode = RedisWriteBehind.RedisMode.SYNC;
+
+        /**
+         * 刷新间隔.
+         */
+        private Duration flushInterval = Duration.ofSeconds(1);
+
+        /**
+         * 每批最大条目数.
+         */
+        private int batchSize = 500;
+
+        /**
+         * 缓冲区最大条目数，超过时调用线程同步刷新.
+         */
+        private int maxPending = 100000;
+
+        /**
+         * 最大尝试次数.
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * 重试间隔.
+         */
+        private Duration retryBackoff = Duration.ofMillis(200);
+    }
+}
@@ -0,0 +1,29 @@
+package cn.bfay.cache.redis;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 后端存储写入器，由使用方实现，{@link RedisWriteBehind}批量调用.
+ * 同一个key的写入按发生顺序交付，抛出异常时整批重试，需要保证幂等.
+ *
+ * @author wangjiannan
+ */
+public interface CacheWriter {
+    /**
+     * 批量写入.
+     *
+     * @param entries 键值，hash类型的值为合并后的Map，合并了删除的hash在同一批中先通过{@link #delete(Collection)}删除
+     * @throws Exception 写入失败
+     */
+    void write(Map<String, Object> entries) throws Exception;
+
+    /**
+     * 批量删除.
+     *
+     * @param keys 键列表
+     * @throws Exception 删除失败
+     */
+    default void delete(Collection<String> keys) throws Exception {
+    }
+}
@@ -0,0 +1,79 @@
+package cn.bfay.cache.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地缓存快照.
+ * 启动时从快照文件恢复本地缓存，关闭时将最热的条目写入快照文件，滚动重启时不必全部回源redis.
+ * 恢复的条目首次命中时照常返回，同时异步从redis重新读取校验，队列满时放弃校验，条目仍受本地过期时间约束.
+ * 快照超过有效期(而不是本地过期时间)后不再恢复，重启时间长于本地过期时间时仍可恢复.
+ *
+ * @author wangjiannan
+ */
+public class LocalCacheSnapshot implements SmartLifecycle {
+    private static final Logger log = LoggerFactory.getLogger(LocalCacheSnapshot.class);
+
+    private static final int REVALIDATE_QUEUE_SIZE = 10000;
+
+    private final OffHeapCache cache;
+    private final String path;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private ThreadPoolExecutor revalidateExecutor;
+    private volatile boolean running = false;
+
+    public LocalCacheSnapshot(OffHeapCache cache, String path, int maxEntries, long ttlMillis) {
+        this.cache = cache;
+        this.path = path;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public void start() {
+        revalidateExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(REVALIDATE_QUEUE_SIZE), r -> {
+                Thread thread = new Thread(r, "local-cache-revalidate");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+        cache.setRevalidator(key -> revalidateExecutor.execute(() -> {
+            try {
+                RedisUtils.refreshLocal(key);
+            } catch (Exception e) {
+                log.debug("本地缓存校验失败 " + key, e);
+            }
+        }));
+        try {
+            int restored = cache.restore(path);
+            log.info(">>>Local cache restored {} entries from {}", restored, path);
+        } catch (Exception e) {
+            log.warn("本地缓存快照恢复失败 " + path, e);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        cache.setRevalidator(null);
+        revalidateExecutor.shutdownNow();
+        try {
+            int count = cache.snapshot(path, maxEntries, ttlMillis);
+            log.info(">>>Local cache snapshot {} entries to {}", count, path);
+        } catch (Exception e) {
+            log.warn("本地缓存快照写入失败 " + path, e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,541 @@
+package cn.bfay.cache.redis;
+
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 堆外本地缓存.
+ * 值以序列化后的字节存放在堆外(direct或memory-mapped)内存中，堆上只保留key索引.
+ * 按key的hash分段加锁，每段内存切分为固定大小的块，空间不足时按LRU淘汰.
+ * 过期的条目不会立即删除，仍可通过{@link #getStale(String)}读取，直到被淘汰.
+ * 可将最热的条目快照到文件，重启时恢复，恢复的条目在首次命中时交给revalidator异步校验.
+ * 每个key(按hash分条)有一个版本号，{@link #invalidate(String)}时递增，
+ * 回填前取{@link #version(String)}，用{@link #putIfVersion(String, byte[], long)}放入，
+ * 读取期间被删除时放弃回填，避免并发写之后旧值又被放回本地缓存.
+ *
+ * @author wangjiannan
+ */
+public class OffHeapCache implements Closeable {
+    /**
+     * 存储方式.
+     */
+    public enum Storage {
+        /**
+         * ByteBuffer.allocateDirect，受-XX:MaxDirectMemorySize限制.
+         */
+        DIRECT,
+        /**
+         * 映射到文件，由操作系统page cache管理.
+         */
+        MAPPED
+    }
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long ttlMillis;
+    private final RandomAccessFile file;
+    private volatile Consumer<String> revalidator;
+    // 未校验的恢复条目数，为0时命中不再检查标记
+    private final AtomicInteger unverified = new AtomicInteger();
+
+    private static final int SNAPSHOT_MAGIC = 0x4F484332;
+    private static final int SNAPSHOT_BUFFER_SIZE = 1 << 20;
+    private static final int VERSION_STRIPES = 4096;
+    // 不检查版本
+    private static final long ANY_VERSION = -1;
+
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    /**
+     * 构造.
+     *
+     * @param capacity     总容量，字节
+     * @param segmentCount 分段数，向上取2的幂
+     * @param blockSize    块大小，字节
+     * @param ttlMillis    本地过期时间，毫秒
+     * @param storage      存储方式
+     * @param path         MAPPED时的文件路径
+     */
+    public OffHeapCache(long capacity, int segmentCount, int blockSize, long ttlMillis,
+                        Storage storage, String path) throws IOException {
+        Preconditions.checkArgument(segmentCount > 0, "segmentCount必须大于0");
+        Preconditions.checkArgument(blockSize > 0, "blockSize必须大于0");
+        int count = Integer.highestOneBit(segmentCount - 1) << 1;
+        count = Math.max(1, count);
+        long segmentCapacity = capacity / count / blockSize * blockSize;
+        Preconditions.checkArgument(segmentCapacity >= blockSize, "capacity过小");
+        Preconditions.checkArgument(segmentCapacity <= Integer.MAX_VALUE, "单个分段容量不能超过2GB，请增加segmentCount");
+        this.segments = new Segment[count];
+        this.segmentMask = count - 1;
+        this.ttlMillis = ttlMillis;
+        if (storage == Storage.MAPPED) {
+            Preconditions.checkArgument(path != null, "MAPPED存储需要指定文件路径");
+            this.file = new RandomAccessFile(path, "rw");
+            FileChannel channel = file.getChannel();
+            for (int i = 0; i < count; i++) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, i * segmentCapacity, segmentCapacity);
+                segments[i] = new Segment(buffer, blockSize, unverified, versions);
+            }
+        } else {
+            this.file = null;
+            for (int i = 0; i < count; i++) {
+                segments[i] = new Segment(ByteBuffer.allocateDirect((int) segmentCapacity), blockSize, unverified,
+                    versions);
+            }
+        }
+    }
+
+    /**
+     * 获取未过期的值.
+     *
+     * @param key 键
+     * @return 字节，不存在或已过期返回null
+     */
+    public byte[] get(String key) {
+        Segment segment = segmentFor(key);
+        byte[] value = segment.get(key, false);
+        if (value != null && unverified.get() > 0 && segment.verify(key)) {
+            Consumer<String> consumer = revalidator;
+            if (consumer != null) {
+                consumer.accept(key);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 获取值，忽略过期时间.
+     *
+     * @param key 键
+     * @return 字节，不存在返回null
+     */
+    public byte[] getStale(String key) {
+        return segmentFor(key).get(key, true);
+    }
+
+    /**
+     * 放入值，使用默认过期时间.
+     *
+     * @param key   键
+     * @param value 字节
+     */
+    public void put(String key, byte[] value) {
+        put(key, value, System.currentTimeMillis() + ttlMillis);
+    }
+
+    /**
+     * 放入值.
+     *
+     * @param key      键
+     * @param value    字节
+     * @param expireAt 过期时间戳，毫秒
+     */
+    public void put(String key, byte[] value, long expireAt) {
+        segmentFor(key).put(key, ByteBuffer.wrap(value), expireAt, false, 0, ANY_VERSION);
+    }
+
+    /**
+     * 当前版本号，从redis读取之前获取.
+     *
+     * @param key 键
+     * @return long
+     */
+    public long version(String key) {
+        return versions.get(stripe(key));
+    }
+
+    /**
+     * 版本号未变化时放入值，使用默认过期时间.
+     *
+     * @param key     键
+     * @param value   字节
+     * @param version 读取之前的{@link #version(String)}
+     * @return 期间被删除过返回false，不放入
+     */
+    public boolean putIfVersion(String key, byte[] value, long version) {
+        return segmentFor(key).put(key, ByteBuffer.wrap(value), System.currentTimeMillis() + ttlMillis, false,
+            stripe(key), version);
+    }
+
+    /**
+     * 设置快照恢复条目的校验回调，恢复的条目首次命中时调用一次.
+     *
+     * @param revalidator 回调，参数为key
+     */
+    public void setRevalidator(Consumer<String> revalidator) {
+        this.revalidator = revalidator;
+    }
+
+    /**
+     * 将最近访问的未过期条目写入快照文件，按缓冲流分块写入，不受单次映射2GB的限制.
+     * 快照的有效期与本地过期时间无关，恢复的条目首次命中时会重新校验.
+     *
+     * @param path       文件路径
+     * @param maxEntries 最大条目数
+     * @param ttlMillis  快照有效期，毫秒，超过后恢复时丢弃
+     * @return 写入的条目数
+     */
+    public int snapshot(String path, int maxEntries, long ttlMillis) throws IOException {
+        int quota = Math.max(1, maxEntries / segments.length);
+        long now = System.currentTimeMillis();
+        List<SnapshotEntry> entries = new ArrayList<>();
+        for (Segment segment : segments) {
+            segment.collect(quota, now, entries);
+        }
+        Path target = Paths.get(path);
+        Path temp = Paths.get(path + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp),
+            SNAPSHOT_BUFFER_SIZE))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(entries.size());
+            out.writeLong(now + ttlMillis);
+            for (SnapshotEntry entry : entries) {
+                out.writeInt(entry.key.length);
+                out.write(entry.key);
+                out.writeInt(entry.value.length);
+                out.write(entry.value);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return entries.size();
+    }
+
+    /**
+     * 从快照文件恢复条目，快照未过期时按本地过期时间放入，并标记为待校验.
+     *
+     * @param path 文件路径
+     * @return 恢复的条目数，文件不存在、格式不对或快照已过期返回0
+     */
+    public int restore(String path) throws IOException {
+        Path source = Paths.get(path);
+        if (!Files.isRegularFile(source)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source),
+            SNAPSHOT_BUFFER_SIZE))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return 0;
+            }
+            int count = in.readInt();
+            long now = System.currentTimeMillis();
+            if (in.readLong() <= now) {
+                return 0;
+            }
+            long expireAt = now + ttlMillis;
+            int restored = 0;
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                String k = new String(key, StandardCharsets.UTF_8);
+                segmentFor(k).put(k, ByteBuffer.wrap(value), expireAt, true, 0, ANY_VERSION);
+                restored++;
+            }
+            return restored;
+        } catch (EOFException e) {
+            // 写入中途退出的文件不会被move过来，这里只可能是损坏的文件
+            return 0;
+        }
+    }
+
+    /**
+     * 删除.
+     *
+     * @param key 键
+     */
+    public void invalidate(String key) {
+        // 先递增版本，再删除：之后的回填都会被放弃，之前已放入的会被删除
+        versions.incrementAndGet(stripe(key));
+        segmentFor(key).remove(key);
+    }
+
+    /**
+     * 清空.
+     */
+    public void clear() {
+        for (int i = 0; i < VERSION_STRIPES; i++) {
+            versions.incrementAndGet(i);
+        }
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * 条目数.
+     *
+     * @return long
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        clear();
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (VERSION_STRIPES - 1);
+    }
+
+    /**
+     * 分段.
+     */
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ByteBuffer buffer;
+        private final int blockSize;
+        private final int blockCount;
+        // 空闲块栈
+        private final int[] freeBlocks;
+        private final AtomicInteger unverified;
+        private final AtomicLongArray versions;
+        private int freeCount;
+        // accessOrder=true，迭代顺序即LRU顺序
+        private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(64, 0.75F, true);
+
+        Segment(ByteBuffer buffer, int blockSize, AtomicInteger unverified, AtomicLongArray versions) {
+            this.buffer = buffer;
+            this.unverified = unverified;
+            this.versions = versions;
+            this.blockSize = blockSize;
+            this.blockCount = buffer.capacity() / blockSize;
+            this.freeBlocks = new int[blockCount];
+            resetFreeBlocks();
+        }
+
+        byte[] get(String key, boolean allowStale) {
+            lock.lock();
+            try {
+                Entry entry = index.get(key);
+                if (entry == null || (!allowStale && entry.expireAt <= System.currentTimeMillis())) {
+                    return null;
+                }
+                return read(entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 放入值，version不为ANY_VERSION时在锁内检查版本，版本已变化返回false.
+         */
+        boolean put(String key, ByteBuffer value, long expireAt, boolean unverified, int stripe, long version) {
+            int needed = (value.remaining() + blockSize - 1) / blockSize;
+            if (needed > blockCount) {
+                remove(key);
+                return false;
+            }
+            lock.lock();
+            try {
+                if (version != ANY_VERSION && versions.get(stripe) != version) {
+                    return false;
+                }
+                release(index.remove(key));
+                Iterator<Map.Entry<String, Entry>> eldest = index.entrySet().iterator();
+                while (freeCount < needed && eldest.hasNext()) {
+                    release(eldest.next().getValue());
+                    eldest.remove();
+                }
+                int[] blocks = new int[needed];
+                for (int i = 0; i < needed; i++) {
+                    blocks[i] = freeBlocks[--freeCount];
+                }
+                Entry entry = new Entry(blocks, value.remaining(), expireAt);
+                entry.unverified = unverified;
+                if (unverified) {
+                    this.unverified.incrementAndGet();
+                }
+                write(entry, value);
+                index.put(key, entry);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 清除未校验标记，返回之前是否未校验.
+         */
+        boolean verify(String key) {
+            lock.lock();
+            try {
+                Entry entry = index.get(key);
+                if (entry == null || !entry.unverified) {
+                    return false;
+                }
+                entry.unverified = false;
+                unverified.decrementAndGet();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 按访问顺序收集最近的quota个未过期条目.
+         */
+        void collect(int quota, long now, List<SnapshotEntry> entries) {
+            lock.lock();
+            try {
+                int skip = index.size() - quota;
+                for (Map.Entry<String, Entry> e : index.entrySet()) {
+                    if (skip-- > 0 || e.getValue().expireAt <= now) {
+                        continue;
+                    }
+                    entries.add(new SnapshotEntry(e.getKey().getBytes(StandardCharsets.UTF_8), read(e.getValue())));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(String key) {
+            lock.lock();
+            try {
+                release(index.remove(key));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                for (Entry entry : index.values()) {
+                    if (entry.unverified) {
+                        unverified.decrementAndGet();
+                    }
+                }
+                index.clear();
+                resetFreeBlocks();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return index.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private byte[] read(Entry entry) {
+            byte[] value = new byte[entry.length];
+            int offset = 0;
+            for (int block : entry.blocks) {
+                int length = Math.min(blockSize, entry.length - offset);
+                buffer.position(block * blockSize);
+                buffer.get(value, offset, length);
+                offset += length;
+            }
+            return value;
+        }
+
+        private void write(Entry entry, ByteBuffer value) {
+            ByteBuffer source = value.duplicate();
+            int start = source.position();
+            int offset = 0;
+            for (int block : entry.blocks) {
+                int length = Math.min(blockSize, entry.length - offset);
+                source.limit(start + offset + length).position(start + offset);
+                buffer.position(block * blockSize);
+                buffer.put(source);
+                offset += length;
+            }
+        }
+
+        private void release(Entry entry) {
+            if (entry == null) {
+                return;
+            }
+            if (entry.unverified) {
+                unverified.decrementAndGet();
+            }
+            for (int block : entry.blocks) {
+                freeBlocks[freeCount++] = block;
+            }
+        }
+
+        private void resetFreeBlocks() {
+            for (int i = 0; i < blockCount; i++) {
+                freeBlocks[i] = i;
+            }
+            freeCount = blockCount;
+        }
+    }
+
+    /**
+     * 索引条目.
+     */
+    private static final class Entry {
+        private final int[] blocks;
+        private final int length;
+        private final long expireAt;
+        // 从快照恢复且尚未校验
+        private boolean unverified;
+
+        Entry(int[] blocks, int length, long expireAt) {
+            this.blocks = blocks;
+            this.length = length;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 快照条目.
+     */
+    private static final class SnapshotEntry {
+        private final byte[] key;
+        private final byte[] value;
+
+        SnapshotEntry(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
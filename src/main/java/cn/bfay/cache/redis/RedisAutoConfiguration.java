@@ -1,9 +1,25 @@
 package cn.bfay.cache.redis;
 
+import io.lettuce.core.ReadFrom;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.LettuceClientConfigurationBuilderCustomizer;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.IOException;
 
 /**
  * RedisAutoConfiguration.
@@ -13,11 +29,137 @@ import org.springframework.context.annotation.Configuration;
  */
 @Slf4j
 @Configuration
+@EnableConfigurationProperties(CacheProperties.class)
 public class RedisAutoConfiguration {
+    public RedisAutoConfiguration(CacheProperties properties) {
+        RedisKeyTemplate.setGlobalPrefix(properties.getKey().getPrefix());
+    }
+
     @Bean
     @ConditionalOnMissingBean//缺失时，初始化bean并添加到SpringIoc
     public RedisUtils redisUtils() {
         log.info(">>>The RedisUtils Not Found，Execute Create New Bean.");
         return new RedisUtils();
     }
+
+    /**
+     * {@link RedisBatchCacheable}的切面，由spring boot的aop自动配置(spring.aop.auto，默认开启)生成代理.
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    @ConditionalOnMissingBean(name = "redisBatchCacheAdvisor")
+    public static Advisor redisBatchCacheAdvisor() {
+        RedisBatchCacheInterceptor interceptor = new RedisBatchCacheInterceptor();
+        return new DefaultPointcutAdvisor(interceptor.pointcut(), interceptor);
+    }
+
+    /**
+     * 本地堆外缓存，作为RedisUtils.getValue的一级缓存.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "bfay.cache.local", name = "enabled", havingValue = "true")
+    public OffHeapCache offHeapCache(CacheProperties properties) throws IOException {
+        CacheProperties.Local local = properties.getLocal();
+        return new OffHeapCache(local.getCapacity().toBytes(), local.getSegments(),
+            (int) local.getBlockSize().toBytes(), local.getTtl().toMillis(), local.getStorage(), local.getFile());
+    }
+
+    /**
+     * 本地缓存快照，关闭时写入，启动时恢复.
+     */
+    @Bean
+    @ConditionalOnBean(OffHeapCache.class)
+    @ConditionalOnProperty(prefix = "bfay.cache.local", name = "snapshot-file")
+    public LocalCacheSnapshot localCacheSnapshot(OffHeapCache offHeapCache, CacheProperties properties) {
+        CacheProperties.Local local = properties.getLocal();
+        return new LocalCacheSnapshot(offHeapCache, local.getSnapshotFile(), local.getSnapshotMaxEntries(),
+            local.getSnapshotTtl().toMillis());
+    }
+
+    /**
+     * 熔断器，打开时读本地旧值，写按策略丢弃或排队.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "bfay.cache.breaker", name = "enabled", havingValue = "true")
+    public RedisCircuitBreaker redisCircuitBreaker(CacheProperties properties) {
+        CacheProperties.Breaker breaker = properties.getBreaker();
+        return new RedisCircuitBreaker(breaker.getWindowSize(), breaker.getMinimumCalls(),
+            breaker.getFailureRateThreshold(), breaker.getSlowCallDuration().toMillis(),
+            breaker.getSlowCallRateThreshold(), breaker.getOpenDuration().toMillis(), breaker.getHalfOpenCalls(),
+            breaker.getWritePolicy(), breaker.getWriteQueueSize());
+    }
+
+    /**
+     * 对冲读，使用独立的连接.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "bfay.cache.hedge", name = "enabled", havingValue = "true")
+    public RedisHedgedReader redisHedgedReader(LettuceConnectionFactory connectionFactory,
+                                               CacheProperties properties) {
+        CacheProperties.Hedge hedge = properties.getHedge();
+        return new RedisHedgedReader(connectionFactory, parseReadFrom(hedge.getReadFrom()), hedge.getPercentile(),
+            hedge.getMinDelay().toMillis(), hedge.getMaxDelay().toMillis(), hedge.getBudgetPercent(),
+            hedge.getMaxBurst());
+    }
+
+    /**
+     * 写后缓存，批量写入使用方提供的CacheWriter.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnBean(CacheWriter.class)
+    @ConditionalOnProperty(prefix = "bfay.cache.write-behind", name = "enabled", havingValue = "true")
+    public RedisWriteBehind redisWriteBehind(RedisUtils redisUtils, CacheWriter cacheWriter,
+                                             CacheProperties properties) {
+        CacheProperties.WriteBehind writeBehind = properties.getWriteBehind();
+        return new RedisWriteBehind(cacheWriter, writeBehind.getRedisMode(), writeBehind.getFlushInterval().toMillis(),
+            writeBehind.getBatchSize(), writeBehind.getMaxPending(), writeBehind.getMaxAttempts(),
+            writeBehind.getRetryBackoff().toMillis());
+    }
+
+    /**
+     * 读写命令分别设置超时.
+     */
+    @Bean
+    @ConditionalOnExpression("'${bfay.cache.timeout.read:}' != '' or '${bfay.cache.timeout.write:}' != ''")
+    public RedisTimeoutCustomizer redisTimeoutCustomizer(RedisProperties redisProperties, CacheProperties properties) {
+        return new RedisTimeoutCustomizer(redisProperties, properties.getTimeout().getRead(),
+            properties.getTimeout().getWrite());
+    }
+
+    /**
+     * 读操作路由到从节点.
+     * lettuce按命令类型路由：只读命令(get/hget/getbit/scan等)按readFrom选择节点，写命令和锁(setnx/del)始终走主节点.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "bfay.cache.routing", name = "read-from")
+    public LettuceClientConfigurationBuilderCustomizer readFromCustomizer(CacheProperties properties) {
+        ReadFrom readFrom = parseReadFrom(properties.getRouting().getReadFrom());
+        log.info(">>>Redis read routing: {}", properties.getRouting().getReadFrom());
+        return builder -> builder.readFrom(readFrom);
+    }
+
+    /**
+     * 启动预热：建立连接、加载RedisScript、预热序列化器、预读key.
+     * 依赖redisUtils，保证RedisUtils先完成初始化.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "bfay.cache.warm-up", name = "enabled", havingValue = "true")
+    public RedisWarmUp redisWarmUp(RedisUtils redisUtils, CacheProperties properties,
+                                   ObjectProvider<RedisScript<?>> scripts) {
+        return new RedisWarmUp(properties.getWarmUp(), scripts);
+    }
+
+    /**
+     * 解析读路由，忽略大小写、下划线和中划线，REPLICA_PREFERRED、replica-preferred、replicaPreferred等价.
+     *
+     * @param readFrom 读路由名称
+     * @return ReadFrom
+     */
+    static ReadFrom parseReadFrom(String readFrom) {
+        return ReadFrom.valueOf(readFrom.replace("_", "").replace("-", ""));
+    }
 }
@@ -0,0 +1,211 @@
+package cn.bfay.cache.redis;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.MethodMatcher;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link RedisBatchCacheable}的拦截器.
+ * 读缓存或写回缓存失败时只记录日志，按无缓存处理.
+ * 未命中的id按参数声明的集合类型重新构造后传给原方法，无法构造的参数类型在创建代理时抛出异常.
+ *
+ * @author wangjiannan
+ */
+public class RedisBatchCacheInterceptor implements MethodInterceptor {
+    private static final Logger log = LoggerFactory.getLogger(RedisBatchCacheInterceptor.class);
+
+    private final Map<Method, Operation> operations = new ConcurrentHashMap<>();
+
+    /**
+     * 匹配{@link RedisBatchCacheable}方法的切点，匹配时解析并校验注解配置，配置错误在创建代理时(启动时)抛出异常.
+     *
+     * @return Pointcut
+     */
+    public Pointcut pointcut() {
+        MethodMatcher annotated = new AnnotationMatchingPointcut(null, RedisBatchCacheable.class, true)
+            .getMethodMatcher();
+        return new StaticMethodMatcherPointcut() {
+            @Override
+            public boolean matches(Method method, Class<?> targetClass) {
+                if (!annotated.matches(method, targetClass)) {
+                    return false;
+                }
+                Method specific = targetClass == null ? method : AopUtils.getMostSpecificMethod(method, targetClass);
+                operations.computeIfAbsent(specific, Operation::new);
+                return true;
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        // jdk代理时invocation.getMethod()是接口方法，注解在实现类的方法上
+        Method method = invocation.getThis() == null ? invocation.getMethod()
+            : AopUtils.getMostSpecificMethod(invocation.getMethod(), AopUtils.getTargetClass(invocation.getThis()));
+        Operation operation = operations.computeIfAbsent(method, Operation::new);
+        Object[] args = invocation.getArguments();
+        Collection<Object> ids = (Collection<Object>) args[operation.argIndex];
+        if (ids == null || ids.isEmpty()) {
+            return invocation.proceed();
+        }
+
+        List<Object> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<String> keys = new ArrayList<>(idList.size());
+        for (Object id : idList) {
+            keys.add(operation.keyTemplate.render(id));
+        }
+        List<Object> cached;
+        try {
+            cached = RedisUtils.multiGetValue(keys, operation.valueType);
+        } catch (Exception e) {
+            log.warn("批量读取缓存失败 " + operation.keyTemplate, e);
+            return invocation.proceed();
+        }
+
+        Map<Object, Object> result = new LinkedHashMap<>();
+        List<Object> missIds = new ArrayList<>();
+        Map<Object, String> missKeys = new HashMap<>();
+        for (int i = 0; i < idList.size(); i++) {
+            if (cached.get(i) != null) {
+                result.put(idList.get(i), cached.get(i));
+            } else {
+                missIds.add(idList.get(i));
+                missKeys.put(idList.get(i), keys.get(i));
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+
+        args[operation.argIndex] = operation.newArgument(ids, missIds);
+        Map<Object, Object> loaded = (Map<Object, Object>) invocation.proceed();
+        if (loaded == null || loaded.isEmpty()) {
+            return result;
+        }
+        Map<String, Object> writeBack = new HashMap<>();
+        loaded.forEach((id, value) -> {
+            result.put(id, value);
+            String key = missKeys.get(id);
+            if (key != null && value != null) {
+                writeBack.put(key, value);
+            }
+        });
+        try {
+            RedisUtils.multiSetValue(writeBack, operation.expire);
+        } catch (Exception e) {
+            log.warn("批量写回缓存失败 " + operation.keyTemplate, e);
+        }
+        return result;
+    }
+
+    /**
+     * 方法上解析出的缓存配置.
+     */
+    private static final class Operation {
+        private final RedisKeyTemplate keyTemplate;
+        private final long expire;
+        private final int argIndex;
+        private final Class<?> argType;
+        private final JavaType valueType;
+
+        Operation(Method method) {
+            RedisBatchCacheable annotation = AnnotatedElementUtils.findMergedAnnotation(method,
+                RedisBatchCacheable.class);
+            if (annotation == null) {
+                throw new IllegalStateException("缺少@RedisBatchCacheable: " + method);
+            }
+            this.keyTemplate = RedisKeyTemplate.compile(annotation.key());
+            this.expire = annotation.expire();
+            this.argIndex = annotation.argIndex() >= 0 ? annotation.argIndex() : collectionArgIndex(method);
+            if (argIndex >= method.getParameterCount()
+                || !Collection.class.isAssignableFrom(method.getParameterTypes()[argIndex])) {
+                throw new IllegalStateException("@RedisBatchCacheable的argIndex必须指向Collection类型的参数: " + method);
+            }
+            this.argType = method.getParameterTypes()[argIndex];
+            if (!argType.isAssignableFrom(ArrayList.class) && !argType.isAssignableFrom(LinkedHashSet.class)
+                && !argType.isAssignableFrom(TreeSet.class) && !argType.isAssignableFrom(ArrayDeque.class)
+                && !instantiable(argType)) {
+                throw new IllegalStateException("@RedisBatchCacheable无法构造" + argType.getName() + "类型的参数: " + method);
+            }
+            if (!Map.class.isAssignableFrom(method.getReturnType())) {
+                throw new IllegalStateException("@RedisBatchCacheable方法的返回值必须是Map: " + method);
+            }
+            ResolvableType valueType = ResolvableType.forMethodReturnType(method).asMap().getGeneric(1);
+            this.valueType = TypeFactory.defaultInstance().constructType(valueType.getType());
+        }
+
+        /**
+         * 用未命中的id构造参数，类型与声明的参数类型兼容.
+         * 声明为Collection时保持原来的List/Set语义，具体类型(如LinkedList、TreeSet)按声明类型构造.
+         */
+        @SuppressWarnings("unchecked")
+        Collection<Object> newArgument(Collection<Object> ids, List<Object> missIds) {
+            if (ids instanceof Set && argType.isAssignableFrom(LinkedHashSet.class)) {
+                return new LinkedHashSet<>(missIds);
+            }
+            if (argType.isAssignableFrom(ArrayList.class)) {
+                return missIds;
+            }
+            if (argType.isAssignableFrom(LinkedHashSet.class)) {
+                return new LinkedHashSet<>(missIds);
+            }
+            if (argType.isAssignableFrom(TreeSet.class)) {
+                return new TreeSet<>(missIds);
+            }
+            if (argType.isAssignableFrom(ArrayDeque.class)) {
+                return new ArrayDeque<>(missIds);
+            }
+            Collection<Object> argument = (Collection<Object>) BeanUtils.instantiateClass(argType);
+            argument.addAll(missIds);
+            return argument;
+        }
+
+        private static boolean instantiable(Class<?> type) {
+            if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+                return false;
+            }
+            try {
+                type.getConstructor();
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+
+        private static int collectionArgIndex(Method method) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (Collection.class.isAssignableFrom(parameterTypes[i])) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("@RedisBatchCacheable方法缺少Collection类型的参数: " + method);
+        }
+    }
+}
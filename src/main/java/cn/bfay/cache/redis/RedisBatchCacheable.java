@@ -0,0 +1,35 @@
+package cn.bfay.cache.redis;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 批量缓存.
+ * 用于形如 {@code Map<Id, Dto> loadAll(Collection<Id> ids)} 的方法：按id拆分成单独的key，一次mget取出命中的值，
+ * 只用未命中的id调用方法，再将方法返回的结果一次pipeline写回缓存.
+ * 方法返回值必须是Map，key为id，缺失的id不放入Map，也不会被缓存.
+ *
+ * @author wangjiannan
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RedisBatchCacheable {
+    /**
+     * key格式，包含一个 %s 或 %d，由id填充，例如 "user:%s".
+     */
+    String key();
+
+    /**
+     * 过期时间，秒.
+     */
+    long expire() default RedisTime.HNOUR;
+
+    /**
+     * id集合参数的下标，默认取第一个Collection类型的参数.
+     */
+    int argIndex() default -1;
+}
@@ -0,0 +1,232 @@
+package cn.bfay.cache.redis;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分桶存储.
+ * 大量小值不再各占一个key，而是按key的hash分散到固定数量的hash中，每个hash保持在listpack/ziplist编码的限制内
+ * (默认hash-max-listpack-entries 512、hash-max-listpack-value 64字节)，可显著减少redis内存.
+ * 过期时间只能作用于整个桶，由{@link TtlPolicy}决定.
+ *
+ * @author wangjiannan
+ */
+public class RedisBucketStore {
+    /**
+     * 桶的过期策略.
+     */
+    public enum TtlPolicy {
+        /**
+         * 不过期.
+         */
+        NONE,
+        /**
+         * 每次写入重新设置过期时间.
+         */
+        SLIDING,
+        /**
+         * 只在桶没有过期时间时设置，即从桶创建开始计算.
+         */
+        FIXED
+    }
+
+    private static final int MAX_PAIRS_PER_CALL = 1000;
+
+    /**
+     * KEYS[1] 桶；ARGV[1] 策略；ARGV[2] 过期秒数；其余为field、value交替.
+     */
+    private static final DefaultRedisScript<Long> PUT_SCRIPT = new DefaultRedisScript<>(
+        "redis.call('HMSET', KEYS[1], unpack(ARGV, 3))\n"
+            + "if ARGV[1] == 'SLIDING' or (ARGV[1] == 'FIXED' and redis.call('TTL', KEYS[1]) == -1) then\n"
+            + "  redis.call('EXPIRE', KEYS[1], ARGV[2])\n"
+            + "end\n"
+            + "return 1", Long.class);
+
+    private final RedisKeyTemplate bucketKey;
+    private final int buckets;
+    private final long expire;
+    private final TtlPolicy ttlPolicy;
+
+    /**
+     * 构造.
+     *
+     * @param namespace 命名空间，桶的key为 namespace:序号
+     * @param buckets   桶数量，可用{@link #bucketsFor(long, int)}计算
+     * @param expire    桶的过期时间，秒
+     * @param ttlPolicy 过期策略
+     */
+    public RedisBucketStore(String namespace, int buckets, long expire, TtlPolicy ttlPolicy) {
+        Preconditions.checkArgument(buckets > 0, "buckets必须大于0");
+        Preconditions.checkArgument(ttlPolicy == TtlPolicy.NONE || expire > 0, "expire必须大于0");
+        this.bucketKey = RedisKeyBuilder.template(namespace, "%d");
+        this.buckets = buckets;
+        this.expire = expire;
+        this.ttlPolicy = ttlPolicy;
+    }
+
+    /**
+     * 计算桶数量.
+     *
+     * @param expectedKeys     预计的key数量
+     * @param entriesPerBucket 每个桶的目标条目数，应小于hash-max-listpack-entries
+     * @return 桶数量
+     */
+    public static int bucketsFor(long expectedKeys, int entriesPerBucket) {
+        return (int) Math.max(1, (expectedKeys + entriesPerBucket - 1) / entriesPerBucket);
+    }
+
+    /**
+     * 设置值.
+     *
+     * @param key   键
+     * @param value 值
+     */
+    public void setValue(String key, Object value) {
+        RedisUtils.stringRedisTemplate().execute(PUT_SCRIPT, Collections.singletonList(bucketOf(key)),
+            ttlPolicy.name(), String.valueOf(expire), key, RedisUtils.encode(value));
+    }
+
+    /**
+     * 批量设置值，每个桶一次调用，一次pipeline.
+     *
+     * @param values 键值
+     */
+    public void multiSetValue(Map<String, ?> values) {
+        Map<String, List<String>> byBucket = new HashMap<>();
+        values.forEach((key, value) -> {
+            List<String> args = byBucket.computeIfAbsent(bucketOf(key), k -> new ArrayList<>());
+            args.add(key);
+            args.add(RedisUtils.encode(value));
+        });
+        RedisUtils.executePipelined(connection -> byBucket.forEach((bucket, args) -> {
+            for (int from = 0; from < args.size(); from += MAX_PAIRS_PER_CALL * 2) {
+                byte[][] keysAndArgs = scriptArgs(bucket, args.subList(from,
+                    Math.min(args.size(), from + MAX_PAIRS_PER_CALL * 2)));
+                connection.scriptingCommands().eval(PUT_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8),
+                    ReturnType.INTEGER, 1, keysAndArgs);
+            }
+        }));
+    }
+
+    /**
+     * 获取值.
+     *
+     * @param key   键
+     * @param clazz 需要转换成的类型
+     * @param <T>   类型
+     * @return 返回转换后的类型
+     */
+    public <T> T getValue(String key, Class<T> clazz) {
+        return getValue(key, RedisUtils.constructType(clazz));
+    }
+
+    /**
+     * 获取值.
+     *
+     * @param key  键
+     * @param type 需要转换成的类型
+     * @param <T>  类型
+     * @return 返回转换后的类型
+     */
+    public <T> T getValue(String key, TypeReference<T> type) {
+        return getValue(key, RedisUtils.constructType(type));
+    }
+
+    /**
+     * 批量获取值，每个桶一次hmget，一次pipeline.
+     *
+     * @param keys  键列表
+     * @param clazz 需要转换成的类型
+     * @param <T>   类型
+     * @return 存在的键值
+     */
+    public <T> Map<String, T> multiGetValue(Collection<String> keys, Class<T> clazz) {
+        return multiGetValue(keys, RedisUtils.constructType(clazz));
+    }
+
+    /**
+     * 批量获取值，每个桶一次hmget，一次pipeline.
+     *
+     * @param keys 键列表
+     * @param type 需要转换成的类型
+     * @param <T>  类型
+     * @return 存在的键值
+     */
+    public <T> Map<String, T> multiGetValue(Collection<String> keys, TypeReference<T> type) {
+        return multiGetValue(keys, RedisUtils.constructType(type));
+    }
+
+    /**
+     * 删除.
+     *
+     * @param key 键
+     */
+    public void delete(String key) {
+        RedisUtils.stringRedisTemplate().opsForHash().delete(bucketOf(key), key);
+    }
+
+    String bucketOf(String key) {
+        int hash = Hashing.murmur3_32().hashString(key, StandardCharsets.UTF_8).asInt();
+        return bucketKey.render(Math.floorMod(hash, buckets));
+    }
+
+    private <T> T getValue(String key, JavaType type) {
+        Object originValue = RedisUtils.stringRedisTemplate().opsForHash().get(bucketOf(key), key);
+        return RedisUtils.decode((String) originValue, type);
+    }
+
+    private <T> Map<String, T> multiGetValue(Collection<String> keys, JavaType type) {
+        Map<String, List<String>> byBucket = new LinkedHashMap<>();
+        for (String key : keys) {
+            byBucket.computeIfAbsent(bucketOf(key), k -> new ArrayList<>()).add(key);
+        }
+        RedisCallback<Object> callback = connection -> {
+            byBucket.forEach((bucket, fields) -> {
+                byte[][] rawFields = new byte[fields.size()][];
+                for (int i = 0; i < rawFields.length; i++) {
+                    rawFields[i] = fields.get(i).getBytes(StandardCharsets.UTF_8);
+                }
+                connection.hashCommands().hMGet(bucket.getBytes(StandardCharsets.UTF_8), rawFields);
+            });
+            return null;
+        };
+        List<Object> results = RedisUtils.stringRedisTemplate().executePipelined(callback);
+        Map<String, T> result = new LinkedHashMap<>();
+        int index = 0;
+        for (List<String> fields : byBucket.values()) {
+            List<?> values = (List<?>) results.get(index++);
+            for (int i = 0; i < fields.size(); i++) {
+                T value = RedisUtils.decode((String) values.get(i), type);
+                if (value != null) {
+                    result.put(fields.get(i), value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private byte[][] scriptArgs(String bucket, List<String> pairs) {
+        byte[][] keysAndArgs = new byte[pairs.size() + 3][];
+        keysAndArgs[0] = bucket.getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[1] = ttlPolicy.name().getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[2] = String.valueOf(expire).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < pairs.size(); i++) {
+            keysAndArgs[i + 3] = pairs.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return keysAndArgs;
+    }
+}
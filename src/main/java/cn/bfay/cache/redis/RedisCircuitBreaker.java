@@ -0,0 +1,388 @@
+package cn.bfay.cache.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.RedisSystemException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * redis熔断器.
+ * 按最近windowSize次调用的失败率和慢调用率判断，超过阈值后打开，openDuration后半开放行少量探测请求，
+ * 探测全部成功后关闭，否则重新打开.
+ * 打开期间：读操作返回本地缓存中的旧值(没有则返回null)，写操作按{@link WritePolicy}丢弃、排队或抛异常，
+ * 需要返回结果的命令(计数器、setNx、list/set等)直接抛异常.
+ * 关闭后在后台线程中按顺序重放排队的写操作，每个写操作之后删除对应key的本地缓存，然后重新读取打开期间返回过旧值的key.
+ * 队列中还有未重放的写操作时，新的写操作即使已关闭也排在队尾，避免旧的写操作在重放时覆盖恢复后的新值.
+ * 锁(RedisLock的setNx和解锁del)不经过熔断器，直接访问redis，失败时抛出异常.
+ *
+ * @author wangjiannan
+ */
+public class RedisCircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(RedisCircuitBreaker.class);
+
+    private static final int MAX_STALE_KEYS = 10000;
+    private static final byte OUTCOME_SLOW = 1;
+    private static final byte OUTCOME_FAILED = 2;
+
+    /**
+     * 状态.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 打开期间写操作的处理策略.
+     */
+    public enum WritePolicy {
+        /**
+         * 丢弃.
+         */
+        DROP,
+        /**
+         * 排队，关闭后重放，队列满时丢弃.
+         */
+        QUEUE,
+        /**
+         * 抛出异常.
+         */
+        FAIL
+    }
+
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final long slowCallNanos;
+    private final int slowCallRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final WritePolicy writePolicy;
+
+    // 滑动窗口
+    private final byte[] outcomes;
+    private int position;
+    private int calls;
+    private int failedCalls;
+    private int slowCalls;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    private final BlockingQueue<PendingWrite> pendingWrites;
+    // 有写操作排队且尚未重放完，修改时持有this
+    private volatile boolean draining;
+    private final Set<String> staleKeys = ConcurrentHashMap.newKeySet();
+    private final ExecutorService recoveryExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "redis-breaker-recovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 构造.
+     *
+     * @param windowSize            滑动窗口大小
+     * @param minimumCalls          计算比例前的最少调用次数
+     * @param failureRateThreshold  失败率阈值，百分比
+     * @param slowCallMillis        慢调用阈值，毫秒
+     * @param slowCallRateThreshold 慢调用率阈值，百分比
+     * @param openMillis            打开持续时间，毫秒
+     * @param halfOpenCalls         半开时的探测次数
+     * @param writePolicy           打开期间写操作的处理策略
+     * @param writeQueueSize        写操作队列大小
+     */
+    public RedisCircuitBreaker(int windowSize, int minimumCalls, int failureRateThreshold, long slowCallMillis,
+                               int slowCallRateThreshold, long openMillis, int halfOpenCalls,
+                               WritePolicy writePolicy, int writeQueueSize) {
+        this.outcomes = new byte[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallMillis * 1_000_000L;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNanos = openMillis * 1_000_000L;
+        this.halfOpenCalls = halfOpenCalls;
+        this.writePolicy = writePolicy;
+        this.pendingWrites = new ArrayBlockingQueue<>(Math.max(1, writeQueueSize));
+    }
+
+    /**
+     * 执行读操作，熔断打开或执行失败时返回fallback，fallback为null时失败抛出原异常.
+     *
+     * @param read     读操作
+     * @param fallback 降级
+     * @param <T>      类型
+     * @return 结果
+     */
+    public <T> T read(Supplier<T> read, Supplier<T> fallback) {
+        if (!tryAcquire()) {
+            return fallback.get();
+        }
+        long start = System.nanoTime();
+        try {
+            T result = read.get();
+            onSuccess(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            onError();
+            T result = fallback.get();
+            if (result == null) {
+                throw e;
+            }
+            log.debug("redis读失败，返回本地旧值", e);
+            return result;
+        }
+    }
+
+    /**
+     * 执行写操作.
+     *
+     * @param key   写入的key，重放后删除其本地缓存
+     * @param write 写操作
+     * @return 是否已执行，被丢弃或排队时返回false
+     */
+    public boolean write(String key, Runnable write) {
+        return write(Collections.singletonList(key), write);
+    }
+
+    /**
+     * 执行写多个key的写操作.
+     *
+     * @param keys  写入的key，重放后删除其本地缓存
+     * @param write 写操作
+     * @return 是否已执行，被丢弃或排队时返回false
+     */
+    public boolean write(Collection<String> keys, Runnable write) {
+        if (draining && enqueueIfDraining(new PendingWrite(keys, write))) {
+            return false;
+        }
+        if (!tryAcquire()) {
+            reject(new PendingWrite(keys, write));
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            write.run();
+            onSuccess(System.nanoTime() - start);
+            return true;
+        } catch (RuntimeException e) {
+            onError();
+            throw e;
+        }
+    }
+
+    /**
+     * 执行需要返回结果的命令，打开时抛出异常，既不降级也不排队.
+     *
+     * @param command 命令
+     * @param <T>     类型
+     * @return 结果
+     */
+    public <T> T call(Supplier<T> command) {
+        if (!tryAcquire()) {
+            throw new RedisSystemException("redis熔断中，拒绝执行命令", null);
+        }
+        long start = System.nanoTime();
+        try {
+            T result = command.get();
+            onSuccess(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            onError();
+            throw e;
+        }
+    }
+
+    /**
+     * 记录返回了旧值的key，关闭后重新读取.
+     *
+     * @param key 键
+     */
+    public void markStale(String key) {
+        if (staleKeys.size() < MAX_STALE_KEYS) {
+            staleKeys.add(key);
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 排队等待重放的写操作数.
+     *
+     * @return int
+     */
+    public int getPendingWriteCount() {
+        return pendingWrites.size();
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (halfOpenPermits > 0) {
+            halfOpenPermits--;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void onSuccess(long nanos) {
+        if (state == State.HALF_OPEN) {
+            if (nanos >= slowCallNanos) {
+                transitionTo(State.OPEN);
+            } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        record(nanos >= slowCallNanos ? OUTCOME_SLOW : 0);
+    }
+
+    private synchronized void onError() {
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+            return;
+        }
+        record(OUTCOME_FAILED);
+    }
+
+    private void record(byte outcome) {
+        if (state != State.CLOSED) {
+            return;
+        }
+        if (calls == outcomes.length) {
+            byte evicted = outcomes[position];
+            if (evicted == OUTCOME_SLOW) {
+                slowCalls--;
+            } else if (evicted == OUTCOME_FAILED) {
+                failedCalls--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[position] = outcome;
+        position = (position + 1) % outcomes.length;
+        if (outcome == OUTCOME_SLOW) {
+            slowCalls++;
+        } else if (outcome == OUTCOME_FAILED) {
+            failedCalls++;
+        }
+        if (calls >= minimumCalls && (failedCalls * 100 >= failureRateThreshold * calls
+            || slowCalls * 100 >= slowCallRateThreshold * calls)) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void transitionTo(State newState) {
+        log.warn(">>>Redis circuit breaker {} -> {}", state, newState);
+        state = newState;
+        if (newState == State.OPEN) {
+            openedAt = System.nanoTime();
+        } else if (newState == State.HALF_OPEN) {
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        } else {
+            calls = 0;
+            position = 0;
+            failedCalls = 0;
+            slowCalls = 0;
+            recoveryExecutor.execute(this::recover);
+        }
+    }
+
+    private void reject(PendingWrite write) {
+        switch (writePolicy) {
+            case QUEUE:
+                enqueue(write);
+                break;
+            case FAIL:
+                throw new RedisSystemException("redis熔断中，拒绝写操作", null);
+            default:
+                log.debug("redis熔断中，丢弃写操作");
+        }
+    }
+
+    private synchronized void enqueue(PendingWrite write) {
+        draining = true;
+        if (!pendingWrites.offer(write)) {
+            log.warn("redis熔断中，写队列已满，丢弃写操作 {}", write.keys);
+        }
+    }
+
+    private synchronized boolean enqueueIfDraining(PendingWrite write) {
+        if (!draining) {
+            return false;
+        }
+        enqueue(write);
+        return true;
+    }
+
+    /**
+     * 取下一个要重放的写操作，队列已空时结束排队.
+     * 上一个写操作执行完之后才结束，期间到来的写操作仍排在它后面.
+     */
+    private synchronized PendingWrite nextPendingWrite() {
+        if (state != State.CLOSED) {
+            return null;
+        }
+        PendingWrite write = pendingWrites.poll();
+        if (write == null) {
+            draining = false;
+        }
+        return write;
+    }
+
+    private void recover() {
+        PendingWrite write;
+        while ((write = nextPendingWrite()) != null) {
+            try {
+                write.write.run();
+            } catch (Exception e) {
+                log.warn("redis熔断恢复后重放写操作失败 " + write.keys, e);
+            } finally {
+                write.keys.forEach(RedisUtils::invalidateLocal);
+            }
+        }
+        for (String key : staleKeys) {
+            if (state != State.CLOSED) {
+                return;
+            }
+            staleKeys.remove(key);
+            try {
+                RedisUtils.refreshLocal(key);
+            } catch (Exception e) {
+                log.debug("redis熔断恢复后重新读取失败 " + key, e);
+            }
+        }
+    }
+
+    /**
+     * 排队的写操作.
+     */
+    private static final class PendingWrite {
+        private final Collection<String> keys;
+        private final Runnable write;
+
+        PendingWrite(Collection<String> keys, Runnable write) {
+            this.keys = keys;
+            this.write = write;
+        }
+    }
+}
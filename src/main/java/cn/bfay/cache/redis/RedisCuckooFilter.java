@@ -0,0 +1,210 @@
+package cn.bfay.cache.redis;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Funnel;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 布谷鸟过滤器，支持删除.
+ * 每个桶4个槽，每个槽保存16位指纹，所有桶保存在一个string中，通过BITFIELD读写.
+ * 值的两个候选桶为 i1 和 i1 ^ hash(指纹)，桶满时在lua中踢出已有指纹到它的另一个候选桶，超过最大踢出次数时回滚并返回失败.
+ * 同一个值可以重复添加，删除时只删除一个，只能删除添加过的值，否则可能误删其他值.
+ *
+ * @param <T> 值类型
+ * @author wangjiannan
+ */
+public class RedisCuckooFilter<T> {
+    private static final int SLOTS_PER_BUCKET = 4;
+    private static final double LOAD_FACTOR = 0.95;
+    private static final int MAX_BUCKETS = 1 << 26;
+    private static final int DEFAULT_MAX_KICKS = 500;
+    private static final long FINGERPRINT_MULTIPLIER = 0x5bd1e995L;
+
+    private static final String SLOT_FUNCTIONS =
+        "local key = KEYS[1]\n"
+            + "local function slots(b)\n"
+            + "  local o = b * 4\n"
+            + "  return redis.call('BITFIELD', key, 'GET', 'u16', '#' .. o, 'GET', 'u16', '#' .. (o + 1),\n"
+            + "    'GET', 'u16', '#' .. (o + 2), 'GET', 'u16', '#' .. (o + 3))\n"
+            + "end\n"
+            + "local function set(b, s, fp)\n"
+            + "  redis.call('BITFIELD', key, 'SET', 'u16', '#' .. (b * 4 + s), fp)\n"
+            + "end\n"
+            + "local function find(b, fp)\n"
+            + "  local current = slots(b)\n"
+            + "  for s = 1, 4 do if current[s] == fp then return s - 1 end end\n"
+            + "  return -1\n"
+            + "end\n"
+            + "local i1, i2, fp = tonumber(ARGV[1]), tonumber(ARGV[2]), tonumber(ARGV[3])\n";
+
+    /**
+     * KEYS[1] 过滤器；ARGV[1] 桶1；ARGV[2] 桶2；ARGV[3] 指纹；ARGV[4] 桶掩码；ARGV[5] 最大踢出次数；ARGV[6] 为1时已存在则不写入.
+     */
+    private static final DefaultRedisScript<Long> ADD_SCRIPT = new DefaultRedisScript<>(
+        SLOT_FUNCTIONS
+            + "local mask, maxKicks = tonumber(ARGV[4]), tonumber(ARGV[5])\n"
+            + "if ARGV[6] == '1' and (find(i1, fp) >= 0 or find(i2, fp) >= 0) then return 0 end\n"
+            + "local function put(b, f)\n"
+            + "  local s = find(b, 0)\n"
+            + "  if s < 0 then return false end\n"
+            + "  set(b, s, f)\n"
+            + "  return true\n"
+            + "end\n"
+            + "if put(i1, fp) or put(i2, fp) then return 1 end\n"
+            + "local path = {}\n"
+            + "local b = i2\n"
+            + "for n = 1, maxKicks do\n"
+            + "  local s = n % 4\n"
+            + "  local victim = slots(b)[s + 1]\n"
+            + "  set(b, s, fp)\n"
+            + "  path[n] = {b, s, victim}\n"
+            + "  fp = victim\n"
+            + "  b = bit.bxor(b, bit.band(fp * 1540483477, mask))\n"
+            + "  if put(b, fp) then return 1 end\n"
+            + "end\n"
+            + "for n = #path, 1, -1 do set(path[n][1], path[n][2], path[n][3]) end\n"
+            + "return -1", Long.class);
+
+    /**
+     * KEYS[1] 过滤器；ARGV[1] 桶1；ARGV[2] 桶2；ARGV[3] 指纹.
+     */
+    private static final DefaultRedisScript<Long> DELETE_SCRIPT = new DefaultRedisScript<>(
+        SLOT_FUNCTIONS
+            + "for _, b in ipairs({i1, i2}) do\n"
+            + "  local s = find(b, fp)\n"
+            + "  if s >= 0 then\n"
+            + "    set(b, s, 0)\n"
+            + "    return 1\n"
+            + "  end\n"
+            + "end\n"
+            + "return 0", Long.class);
+
+    private final Funnel<? super T> funnel;
+    private final String key;
+    private final int bucketMask;
+    private final int maxKicks;
+
+    /**
+     * 构造.
+     *
+     * @param funnel   funnel
+     * @param key      键
+     * @param capacity 最大元素个数，桶数量按2的幂向上取整
+     */
+    public RedisCuckooFilter(Funnel<? super T> funnel, String key, long capacity) {
+        this(funnel, key, capacity, DEFAULT_MAX_KICKS);
+    }
+
+    /**
+     * 构造.
+     *
+     * @param funnel   funnel
+     * @param key      键
+     * @param capacity 最大元素个数，桶数量按2的幂向上取整
+     * @param maxKicks 添加时的最大踢出次数
+     */
+    public RedisCuckooFilter(Funnel<? super T> funnel, String key, long capacity, int maxKicks) {
+        Preconditions.checkArgument(funnel != null, "funnel不能为空");
+        Preconditions.checkArgument(capacity > 0, "capacity必须大于0");
+        long buckets = (long) Math.ceil(capacity / LOAD_FACTOR / SLOTS_PER_BUCKET);
+        Preconditions.checkArgument(buckets <= MAX_BUCKETS, "capacity过大: %s", capacity);
+        this.funnel = funnel;
+        this.key = key;
+        this.bucketMask = Integer.highestOneBit((int) Math.max(1, buckets * 2 - 1)) - 1;
+        this.maxKicks = maxKicks;
+    }
+
+    /**
+     * 添加值.
+     *
+     * @param value 值
+     * @return 过滤器已满返回false
+     */
+    public boolean add(T value) {
+        return add(value, false) == 1L;
+    }
+
+    /**
+     * 不存在时添加值，判断和写入是原子的.
+     *
+     * @param value 值
+     * @return 添加成功返回true，可能已存在或过滤器已满返回false
+     */
+    public boolean addIfAbsent(T value) {
+        return add(value, true) == 1L;
+    }
+
+    /**
+     * 判断是否可能存在，两个候选桶在一次BITFIELD中读取.
+     *
+     * @param value 值
+     * @return 不存在返回false
+     */
+    public boolean mightContain(T value) {
+        long hash = BloomFilterHelper.murmurHash64(funnel, value);
+        int fingerprint = fingerprint(hash);
+        int i1 = index(hash);
+        int i2 = alternate(i1, fingerprint);
+        BitFieldSubCommands commands = BitFieldSubCommands.create();
+        for (int bucket : new int[] {i1, i2}) {
+            for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+                commands = commands.get(BitFieldSubCommands.BitFieldType.unsigned(16))
+                    .valueAt(BitFieldSubCommands.Offset.offset((long) bucket * SLOTS_PER_BUCKET + slot)
+                        .multipliedByTypeLength());
+            }
+        }
+        List<Long> slots = RedisUtils.stringRedisTemplate().opsForValue().bitField(key, commands);
+        return slots != null && slots.contains((long) fingerprint);
+    }
+
+    /**
+     * 删除值.
+     *
+     * @param value 值，必须是添加过的
+     * @return 找到并删除返回true
+     */
+    public boolean delete(T value) {
+        return execute(DELETE_SCRIPT, value) == 1L;
+    }
+
+    private long add(T value, boolean ifAbsent) {
+        return execute(ADD_SCRIPT, value, String.valueOf(bucketMask), String.valueOf(maxKicks),
+            ifAbsent ? "1" : "0");
+    }
+
+    private long execute(DefaultRedisScript<Long> script, T value, String... extraArgs) {
+        long hash = BloomFilterHelper.murmurHash64(funnel, value);
+        int fingerprint = fingerprint(hash);
+        int i1 = index(hash);
+        Object[] args = new Object[3 + extraArgs.length];
+        args[0] = String.valueOf(i1);
+        args[1] = String.valueOf(alternate(i1, fingerprint));
+        args[2] = String.valueOf(fingerprint);
+        System.arraycopy(extraArgs, 0, args, 3, extraArgs.length);
+        Long result = RedisUtils.stringRedisTemplate().execute(script, Collections.singletonList(key), args);
+        return result == null ? 0L : result;
+    }
+
+    private int index(long hash) {
+        return (int) hash & bucketMask;
+    }
+
+    /**
+     * 另一个候选桶，与lua中的计算一致.
+     */
+    private int alternate(int index, int fingerprint) {
+        return index ^ (int) ((fingerprint * FINGERPRINT_MULTIPLIER) & bucketMask);
+    }
+
+    /**
+     * 取hash的高16位作为指纹，0表示空槽，所以指纹不能为0.
+     */
+    private static int fingerprint(long hash) {
+        int fingerprint = (int) (hash >>> 48);
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+}
@@ -0,0 +1,272 @@
+package cn.bfay.cache.redis;
+
+import io.lettuce.core.ReadFrom;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 对冲读.
+ * 幂等读(get/hget)在自适应阈值(最近读延迟的指定百分位)内未返回时，通过另一条按hedgeReadFrom路由的连接再发一次，取先成功的结果.
+ * 对冲次数受令牌桶限制：每次读增加budgetPercent%个令牌，对冲消耗1个，最多累积maxBurst个.
+ * 对冲连接默认优先读副本，与主连接路由相同时对冲仍可能落到同一个慢节点.
+ * 两条连接在构造时建立，首次对冲不必等待建连，建连失败时在首次使用时重试.
+ *
+ * @author wangjiannan
+ */
+public class RedisHedgedReader implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(RedisHedgedReader.class);
+
+    private static final int SAMPLE_SIZE = 1024;
+    private static final int RECOMPUTE_INTERVAL = 256;
+    private static final long MILLI_TOKENS_PER_HEDGE = 1000L;
+
+    private final LettuceConnectionFactory primaryFactory;
+    private final LettuceConnectionFactory hedgeFactory;
+    private final long commandTimeoutNanos;
+    private final int percentile;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final long milliTokensPerRead;
+    private final long maxMilliTokens;
+
+    private volatile LettuceConnection primaryConnection;
+    private volatile LettuceConnection hedgeConnection;
+
+    // 主请求延迟采样
+    private final long[] samples = new long[SAMPLE_SIZE];
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private volatile long delayNanos;
+    private final AtomicLong milliTokens = new AtomicLong();
+
+    /**
+     * 构造.
+     *
+     * @param primaryFactory 主连接工厂
+     * @param hedgeReadFrom  对冲连接的读路由
+     * @param percentile     触发对冲的延迟百分位
+     * @param minDelayMillis 对冲阈值下限，毫秒
+     * @param maxDelayMillis 对冲阈值上限，毫秒，采样不足时使用
+     * @param budgetPercent  对冲预算，占读请求的百分比
+     * @param maxBurst       最多累积的对冲令牌数
+     */
+    public RedisHedgedReader(LettuceConnectionFactory primaryFactory, ReadFrom hedgeReadFrom, int percentile,
+                             long minDelayMillis, long maxDelayMillis, int budgetPercent, int maxBurst) {
+        this.primaryFactory = primaryFactory;
+        this.hedgeFactory = createHedgeFactory(primaryFactory, hedgeReadFrom);
+        this.commandTimeoutNanos = primaryFactory.getClientConfiguration().getCommandTimeout().toNanos();
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.delayNanos = maxDelayNanos;
+        this.milliTokensPerRead = budgetPercent * MILLI_TOKENS_PER_HEDGE / 100;
+        this.maxMilliTokens = maxBurst * MILLI_TOKENS_PER_HEDGE;
+        if (hedgeReadFrom.equals(primaryFactory.getClientConfiguration().getReadFrom().orElse(ReadFrom.MASTER))) {
+            log.warn(">>>Hedge readFrom {} is the same as the primary connection, hedged reads may hit the same node",
+                hedgeReadFrom);
+        }
+        try {
+            primary();
+            hedge();
+        } catch (RuntimeException e) {
+            log.warn("对冲读连接建立失败，首次读取时重试", e);
+        }
+    }
+
+    /**
+     * GET.
+     *
+     * @param key 键
+     * @return 值
+     */
+    public byte[] get(byte[] key) {
+        return read(commands -> commands.get(key).toCompletableFuture());
+    }
+
+    /**
+     * HGET.
+     *
+     * @param key   键
+     * @param field 字段
+     * @return 值
+     */
+    public byte[] hget(byte[] key, byte[] field) {
+        return read(commands -> commands.hget(key, field).toCompletableFuture());
+    }
+
+    /**
+     * 当前对冲阈值，毫秒.
+     *
+     * @return long
+     */
+    public long getDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(delayNanos);
+    }
+
+    @Override
+    public void destroy() {
+        if (primaryConnection != null) {
+            primaryConnection.close();
+        }
+        if (hedgeConnection != null) {
+            hedgeConnection.close();
+        }
+        hedgeFactory.destroy();
+    }
+
+    private byte[] read(Function<RedisClusterAsyncCommands<byte[], byte[]>, CompletableFuture<byte[]>> command) {
+        long start = System.nanoTime();
+        addTokens();
+        CompletableFuture<byte[]> primary = command.apply(primary());
+        primary.whenComplete((value, e) -> {
+            if (e == null) {
+                record(System.nanoTime() - start);
+            }
+        });
+        try {
+            return primary.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (!tryAcquireHedge()) {
+                return await(primary, start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RedisSystemException("redis读被中断", e);
+        } catch (ExecutionException e) {
+            throw new RedisSystemException(e.getCause().getMessage(), e.getCause());
+        }
+        CompletableFuture<byte[]> hedge = command.apply(hedge());
+        return await(firstSuccess(primary, hedge), start);
+    }
+
+    private byte[] await(CompletableFuture<byte[]> future, long start) {
+        try {
+            return future.get(Math.max(0, commandTimeoutNanos - (System.nanoTime() - start)), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RedisSystemException("redis读被中断", e);
+        } catch (ExecutionException e) {
+            throw new RedisSystemException(e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new RedisSystemException("redis读超时", e);
+        }
+    }
+
+    private static CompletableFuture<byte[]> firstSuccess(CompletableFuture<byte[]> first,
+                                                          CompletableFuture<byte[]> second) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<byte[]> future : Arrays.asList(first, second)) {
+            future.whenComplete((value, e) -> {
+                if (e == null) {
+                    result.complete(value);
+                } else if (failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+        return result;
+    }
+
+    private void addTokens() {
+        long current;
+        do {
+            current = milliTokens.get();
+            if (current >= maxMilliTokens) {
+                return;
+            }
+        } while (!milliTokens.compareAndSet(current, Math.min(maxMilliTokens, current + milliTokensPerRead)));
+    }
+
+    private boolean tryAcquireHedge() {
+        long current;
+        do {
+            current = milliTokens.get();
+            if (current < MILLI_TOKENS_PER_HEDGE) {
+                return false;
+            }
+        } while (!milliTokens.compareAndSet(current, current - MILLI_TOKENS_PER_HEDGE));
+        return true;
+    }
+
+    private void record(long nanos) {
+        int count = sampleCount.getAndIncrement() & Integer.MAX_VALUE;
+        samples[count & (SAMPLE_SIZE - 1)] = nanos;
+        if (count >= SAMPLE_SIZE && (count & (RECOMPUTE_INTERVAL - 1)) == 0) {
+            long[] sorted = samples.clone();
+            Arrays.sort(sorted);
+            long value = sorted[Math.min(SAMPLE_SIZE - 1, SAMPLE_SIZE * percentile / 100)];
+            delayNanos = Math.max(minDelayNanos, Math.min(maxDelayNanos, value));
+        }
+    }
+
+    private RedisClusterAsyncCommands<byte[], byte[]> primary() {
+        if (primaryConnection == null) {
+            synchronized (this) {
+                if (primaryConnection == null) {
+                    primaryConnection = (LettuceConnection) primaryFactory.getConnection();
+                }
+            }
+        }
+        return primaryConnection.getNativeConnection();
+    }
+
+    private RedisClusterAsyncCommands<byte[], byte[]> hedge() {
+        if (hedgeConnection == null) {
+            synchronized (this) {
+                if (hedgeConnection == null) {
+                    hedgeConnection = (LettuceConnection) hedgeFactory.getConnection();
+                }
+            }
+        }
+        return hedgeConnection.getNativeConnection();
+    }
+
+    /**
+     * 复制主连接工厂的配置，仅替换读路由，使用独立的连接.
+     */
+    private static LettuceConnectionFactory createHedgeFactory(LettuceConnectionFactory primary, ReadFrom readFrom) {
+        LettuceClientConfiguration base = primary.getClientConfiguration();
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder builder = LettuceClientConfiguration.builder()
+            .readFrom(readFrom)
+            .commandTimeout(base.getCommandTimeout())
+            .shutdownTimeout(base.getShutdownTimeout());
+        base.getClientOptions().ifPresent(builder::clientOptions);
+        base.getClientResources().ifPresent(builder::clientResources);
+        base.getClientName().ifPresent(builder::clientName);
+        if (base.isUseSsl()) {
+            LettuceClientConfiguration.LettuceSslClientConfigurationBuilder ssl = builder.useSsl();
+            if (!base.isVerifyPeer()) {
+                ssl.disablePeerVerification();
+            }
+            if (base.isStartTls()) {
+                ssl.startTls();
+            }
+        }
+        LettuceClientConfiguration clientConfiguration = builder.build();
+        LettuceConnectionFactory factory;
+        if (primary.getClusterConfiguration() != null) {
+            factory = new LettuceConnectionFactory(primary.getClusterConfiguration(), clientConfiguration);
+        } else if (primary.getSentinelConfiguration() != null) {
+            factory = new LettuceConnectionFactory(primary.getSentinelConfiguration(), clientConfiguration);
+        } else {
+            factory = new LettuceConnectionFactory(primary.getStandaloneConfiguration(), clientConfiguration);
+        }
+        factory.afterPropertiesSet();
+        return factory;
+    }
+}
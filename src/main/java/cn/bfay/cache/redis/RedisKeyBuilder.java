@@ -1,11 +1,19 @@
 package cn.bfay.cache.redis;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * RedisKeyBuilder.
  *
  * @author wangjiannan
  */
 public class RedisKeyBuilder {
+    private static final int MAX_CACHED_TEMPLATES = 1024;
+    // 无法预编译的格式，回退到String.format
+    private static final RedisKeyTemplate UNSUPPORTED = RedisKeyTemplate.compile("");
+    private static final Map<String, RedisKeyTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
     /**
      * 生成redis key.
      *
@@ -14,6 +22,35 @@ public class RedisKeyBuilder {
      * @return string
      */
     public static String generateRedisKey(String format, Object... objects) {
-        return String.format(format, objects);
+        RedisKeyTemplate template = TEMPLATES.get(format);
+        if (template == null) {
+            template = compileOrUnsupported(format);
+            if (TEMPLATES.size() < MAX_CACHED_TEMPLATES) {
+                TEMPLATES.putIfAbsent(format, template);
+            }
+        }
+        if (template == UNSUPPORTED) {
+            return String.format(format, objects);
+        }
+        return template.renderRaw(objects);
+    }
+
+    /**
+     * 创建预编译模板，带全局前缀和命名空间.
+     *
+     * @param namespace 命名空间
+     * @param format    格式化字符串，仅支持 %s、%d、%%
+     * @return RedisKeyTemplate
+     */
+    public static RedisKeyTemplate template(String namespace, String format) {
+        return RedisKeyTemplate.compile(format).withNamespace(namespace);
+    }
+
+    private static RedisKeyTemplate compileOrUnsupported(String format) {
+        try {
+            return RedisKeyTemplate.compile(format);
+        } catch (IllegalArgumentException e) {
+            return UNSUPPORTED;
+        }
     }
 }
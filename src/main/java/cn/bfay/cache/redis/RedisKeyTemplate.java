@@ -0,0 +1,177 @@
+package cn.bfay.cache.redis;
+
+import com.google.common.base.Preconditions;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预编译的redis key模板.
+ * 格式字符串只解析一次，渲染时复用线程内的StringBuilder，仅支持 %s、%d、%% 占位.
+ * 渲染结果依次为：全局前缀、命名空间、模板内容，以":"连接.
+ *
+ * @author wangjiannan
+ */
+public final class RedisKeyTemplate {
+    private static final String SEPARATOR = ":";
+    private static final int MAX_BUFFER_CAPACITY = 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+    private static volatile String globalPrefix = "";
+
+    private final String format;
+    private final String namespace;
+    // literals.length == conversions.length + 1
+    private final String[] literals;
+    private final char[] conversions;
+    private final int hashTagIndex;
+
+    private RedisKeyTemplate(String format, String namespace, String[] literals, char[] conversions, int hashTagIndex) {
+        this.format = format;
+        this.namespace = namespace;
+        this.literals = literals;
+        this.conversions = conversions;
+        this.hashTagIndex = hashTagIndex;
+    }
+
+    /**
+     * 编译格式字符串.
+     *
+     * @param format 格式化字符串
+     * @return RedisKeyTemplate
+     * @throws IllegalArgumentException 包含 %s、%d、%% 之外的格式
+     */
+    public static RedisKeyTemplate compile(String format) {
+        Preconditions.checkArgument(format != null, "format不能为空");
+        List<String> literals = new ArrayList<>();
+        StringBuilder conversions = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            Preconditions.checkArgument(i + 1 < format.length(), "格式字符串不完整: %s", format);
+            char conversion = format.charAt(++i);
+            if (conversion == '%') {
+                literal.append('%');
+            } else if (conversion == 's' || conversion == 'd') {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                conversions.append(conversion);
+            } else {
+                throw new IllegalArgumentException("不支持的格式: %" + conversion + " in " + format);
+            }
+        }
+        literals.add(literal.toString());
+        return new RedisKeyTemplate(format, "", literals.toArray(new String[0]),
+            conversions.toString().toCharArray(), -1);
+    }
+
+    /**
+     * 设置全局前缀，对所有模板生效.
+     *
+     * @param prefix 前缀，为空时不加前缀
+     */
+    public static void setGlobalPrefix(String prefix) {
+        globalPrefix = prefix == null ? "" : prefix;
+    }
+
+    /**
+     * 返回带命名空间的新模板.
+     *
+     * @param namespace 命名空间
+     * @return RedisKeyTemplate
+     */
+    public RedisKeyTemplate withNamespace(String namespace) {
+        return new RedisKeyTemplate(format, namespace == null ? "" : namespace, literals, conversions, hashTagIndex);
+    }
+
+    /**
+     * 返回对第argIndex个参数加{hash-tag}的新模板，集群模式下相同参数的key落在同一个slot.
+     *
+     * @param argIndex 参数下标，从0开始
+     * @return RedisKeyTemplate
+     */
+    public RedisKeyTemplate withHashTag(int argIndex) {
+        Preconditions.checkArgument(argIndex >= 0 && argIndex < conversions.length,
+            "hash-tag参数下标越界: %s", argIndex);
+        return new RedisKeyTemplate(format, namespace, literals, conversions, argIndex);
+    }
+
+    /**
+     * 参数个数.
+     *
+     * @return int
+     */
+    public int getArgCount() {
+        return conversions.length;
+    }
+
+    /**
+     * 生成redis key.
+     *
+     * @param args 参数列表
+     * @return string
+     */
+    public String render(Object... args) {
+        StringBuilder sb = buffer();
+        if (!globalPrefix.isEmpty()) {
+            sb.append(globalPrefix).append(SEPARATOR);
+        }
+        if (!namespace.isEmpty()) {
+            sb.append(namespace).append(SEPARATOR);
+        }
+        return appendBody(sb, args).toString();
+    }
+
+    /**
+     * 不带任何前缀的渲染，与String.format结果一致.
+     */
+    String renderRaw(Object... args) {
+        return appendBody(buffer(), args).toString();
+    }
+
+    private StringBuilder appendBody(StringBuilder sb, Object[] args) {
+        int argLength = args == null ? 0 : args.length;
+        if (argLength < conversions.length) {
+            throw new IllegalArgumentException("参数个数不足，需要" + conversions.length + "个: " + format);
+        }
+        sb.append(literals[0]);
+        for (int i = 0; i < conversions.length; i++) {
+            Object arg = args[i];
+            if (conversions[i] == 'd' && arg != null && !isIntegral(arg)) {
+                throw new IllegalArgumentException("%d 需要整数类型参数: " + arg.getClass().getName());
+            }
+            if (i == hashTagIndex) {
+                sb.append('{').append(arg).append('}');
+            } else {
+                sb.append(arg);
+            }
+            sb.append(literals[i + 1]);
+        }
+        return sb;
+    }
+
+    private static boolean isIntegral(Object arg) {
+        return arg instanceof Integer || arg instanceof Long || arg instanceof Short
+            || arg instanceof Byte || arg instanceof BigInteger;
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder sb = BUFFER.get();
+        if (sb.capacity() > MAX_BUFFER_CAPACITY) {
+            sb = new StringBuilder(128);
+            BUFFER.set(sb);
+        }
+        sb.setLength(0);
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return format;
+    }
+}
@@ -18,6 +18,7 @@ public class RedisLock {
     private static final long TRY_INTERVAL_MILLIS = 100;
     private static final String LOCK_ROOT_KEY = "LOCK";
     private static final String LOCK_VALUE = "LOCK_VALUE";
+    private static final RedisKeyTemplate LOCK_KEY_TEMPLATE = RedisKeyTemplate.compile(LOCK_ROOT_KEY + ":%s");
 
     private static volatile boolean locked = false;
 
@@ -59,7 +60,7 @@ public class RedisLock {
         int tryCount = 0;
         while (tryCount++ <= tryMaxCount) {
             try {
-                if (RedisUtils.setNx(generateLockKey(key), value, expire)) {
+                if (RedisUtils.setNxDirect(generateLockKey(key), value, expire)) {
                     log.debug(Thread.currentThread().getName() + "获取到了锁");
                     locked = true;
                     return true;
@@ -83,11 +84,11 @@ public class RedisLock {
         if (locked) {
             log.debug(Thread.currentThread().getName() + "解锁操作");
             locked = false;
-            RedisUtils.delete(generateLockKey(lockKey));
+            RedisUtils.deleteDirect(generateLockKey(lockKey));
         }
     }
 
     private static String generateLockKey(String lockKey) {
-        return String.format("%s%s%s", LOCK_ROOT_KEY, ":", lockKey);
+        return LOCK_KEY_TEMPLATE.render(lockKey);
     }
 }
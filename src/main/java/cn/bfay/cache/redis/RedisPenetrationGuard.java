@@ -0,0 +1,140 @@
+package cn.bfay.cache.redis;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * 缓存穿透防护.
+ * 读取时先查布隆过滤器，不存在的id直接返回null，不读redis的值也不调用loader；
+ * 缓存未命中时调用loader，结果为null时写入占位值并设置较短的过期时间，不为null时写入缓存.
+ * 布隆过滤器的判断是一次额外的redis往返(一次pipeline的getbit)，每次读取都会发生，包括缓存命中.
+ * 布隆过滤器需要预先用{@link #markExists(Collection)}加入全部已有的id，新增数据时调用{@link #markExists(Object)}；
+ * 过滤器为空时所有id都被判定为不存在，首次读取时发现过滤器的key不存在会记录警告.
+ * 空值占位写在同一个key下，RedisUtils按类型读取(getValue/multiGetValue/@RedisBatchCacheable)时视为null.
+ *
+ * @param <I> id类型
+ * @author wangjiannan
+ */
+public class RedisPenetrationGuard<I> {
+    private static final Logger log = LoggerFactory.getLogger(RedisPenetrationGuard.class);
+
+    /**
+     * 空值占位.
+     */
+    static final String NULL_VALUE = "\0";
+
+    private final BloomFilterHelper<I> bloomFilterHelper;
+    private final String bloomKey;
+    private final long nullExpire;
+    private volatile boolean bloomChecked;
+
+    /**
+     * 构造.
+     *
+     * @param bloomFilterHelper 布隆过滤器，为null时只做空值缓存
+     * @param bloomKey          布隆过滤器的key
+     * @param nullExpire        空值的过期时间，秒
+     */
+    public RedisPenetrationGuard(BloomFilterHelper<I> bloomFilterHelper, String bloomKey, long nullExpire) {
+        this.bloomFilterHelper = bloomFilterHelper;
+        this.bloomKey = bloomKey;
+        this.nullExpire = nullExpire;
+    }
+
+    /**
+     * 获取值.
+     *
+     * @param key    键
+     * @param id     id
+     * @param clazz  需要转换成的类型
+     * @param loader 缓存未命中时的加载方法
+     * @param expire 有效时间,单位:秒
+     * @param <V>    类型
+     * @return 值，不存在返回null
+     */
+    public <V> V get(String key, I id, Class<V> clazz, Function<I, V> loader, long expire) {
+        return get(key, id, RedisUtils.constructType(clazz), loader, expire);
+    }
+
+    /**
+     * 获取值.
+     *
+     * @param key    键
+     * @param id     id
+     * @param type   需要转换成的类型
+     * @param loader 缓存未命中时的加载方法
+     * @param expire 有效时间,单位:秒
+     * @param <V>    类型
+     * @return 值，不存在返回null
+     */
+    public <V> V get(String key, I id, TypeReference<V> type, Function<I, V> loader, long expire) {
+        return get(key, id, RedisUtils.constructType(type), loader, expire);
+    }
+
+    /**
+     * 标记id存在，新增数据时调用.
+     *
+     * @param id id
+     */
+    public void markExists(I id) {
+        if (bloomFilterHelper != null) {
+            RedisUtils.bloomAdd(bloomFilterHelper, bloomKey, id);
+        }
+    }
+
+    /**
+     * 批量标记id存在，用于启动时加入全部已有的id，分批pipeline写入.
+     *
+     * @param ids id
+     */
+    public void markExists(Collection<? extends I> ids) {
+        if (bloomFilterHelper != null) {
+            RedisUtils.bloomAddAll(bloomFilterHelper, bloomKey, ids);
+        }
+    }
+
+    /**
+     * 判断id是否可能存在.
+     *
+     * @param id id
+     * @return 不存在返回false
+     */
+    public boolean mightExist(I id) {
+        if (bloomFilterHelper == null) {
+            return true;
+        }
+        if (!bloomChecked) {
+            if (!Boolean.TRUE.equals(RedisUtils.hasKey(bloomKey))) {
+                log.warn("布隆过滤器{}不存在，所有id都会被判定为不存在，请先调用markExists加入已有的id", bloomKey);
+            }
+            bloomChecked = true;
+        }
+        return RedisUtils.bloomContains(bloomFilterHelper, bloomKey, id);
+    }
+
+    private <V> V get(String key, I id, JavaType type, Function<I, V> loader, long expire) {
+        if (!mightExist(id)) {
+            return null;
+        }
+        String originValue = RedisUtils.getValue(key);
+        if (NULL_VALUE.equals(originValue)) {
+            return null;
+        }
+        if (originValue != null) {
+            return RedisUtils.decode(originValue, type);
+        }
+        V value = loader.apply(id);
+        if (value == null) {
+            RedisUtils.setValue(key, NULL_VALUE, nullExpire);
+        } else {
+            // 能走到这里说明id已在布隆过滤器中，不必再加入
+            RedisUtils.setValue(key, (Object) value, expire);
+        }
+        return value;
+    }
+}
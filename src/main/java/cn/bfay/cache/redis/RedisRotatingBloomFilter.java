@@ -0,0 +1,124 @@
+package cn.bfay.cache.redis;
+
+import com.google.common.base.Preconditions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按时间分代的布隆过滤器.
+ * 时间窗口被分成generations个时间片，每个时间片一个bitmap，写入当前时间片，判断时在一次lua调用中检查覆盖整个窗口的所有时间片.
+ * 每个时间片的key在移出窗口时由EXPIREAT自动删除，不需要重建，适用于"最近N分钟是否出现过"的去重.
+ * 时间片按客户端时钟计算，各客户端的时钟偏差应远小于时间片长度.
+ *
+ * @param <T> 值类型
+ * @author wangjiannan
+ */
+public class RedisRotatingBloomFilter<T> {
+    /**
+     * KEYS[1] 当前时间片，其余为更早的时间片；ARGV[1] 过期时间戳；ARGV[2] 为1时已存在则不写入；其余为bit位置.
+     */
+    private static final DefaultRedisScript<Long> ADD_SCRIPT = new DefaultRedisScript<>(
+        "if ARGV[2] == '1' then\n"
+            + "  for _, key in ipairs(KEYS) do\n"
+            + "    local found = 1\n"
+            + "    for i = 3, #ARGV do\n"
+            + "      if redis.call('GETBIT', key, ARGV[i]) == 0 then found = 0 break end\n"
+            + "    end\n"
+            + "    if found == 1 then return 0 end\n"
+            + "  end\n"
+            + "end\n"
+            + "for i = 3, #ARGV do redis.call('SETBIT', KEYS[1], ARGV[i], 1) end\n"
+            + "redis.call('EXPIREAT', KEYS[1], ARGV[1])\n"
+            + "return 1", Long.class);
+
+    /**
+     * KEYS 所有时间片；ARGV bit位置.
+     */
+    private static final DefaultRedisScript<Long> CONTAINS_SCRIPT = new DefaultRedisScript<>(
+        "for _, key in ipairs(KEYS) do\n"
+            + "  local found = 1\n"
+            + "  for i = 1, #ARGV do\n"
+            + "    if redis.call('GETBIT', key, ARGV[i]) == 0 then found = 0 break end\n"
+            + "  end\n"
+            + "  if found == 1 then return 1 end\n"
+            + "end\n"
+            + "return 0", Long.class);
+
+    private final BloomFilterHelper<T> bloomFilterHelper;
+    private final RedisKeyTemplate generationKey;
+    private final String key;
+    private final long sliceSeconds;
+    private final int generations;
+
+    /**
+     * 构造.
+     *
+     * @param bloomFilterHelper 每个时间片的布隆过滤器参数，expectedInsertions按一个时间片的写入量估计
+     * @param key               键，各时间片的key为 {key}:时间片序号，集群模式下落在同一个slot
+     * @param window            时间窗口，秒
+     * @param generations       时间片数量，越多过期越精确，判断时检查generations+1个bitmap
+     */
+    public RedisRotatingBloomFilter(BloomFilterHelper<T> bloomFilterHelper, String key, long window,
+                                    int generations) {
+        Preconditions.checkArgument(bloomFilterHelper != null, "bloomFilterHelper不能为空");
+        Preconditions.checkArgument(window > 0, "window必须大于0");
+        Preconditions.checkArgument(generations > 0, "generations必须大于0");
+        this.bloomFilterHelper = bloomFilterHelper;
+        this.generationKey = RedisKeyTemplate.compile("%s:%d").withHashTag(0);
+        this.key = key;
+        this.sliceSeconds = (window + generations - 1) / generations;
+        this.generations = generations;
+    }
+
+    /**
+     * 添加值.
+     *
+     * @param value 值
+     */
+    public void add(T value) {
+        execute(ADD_SCRIPT, value, false);
+    }
+
+    /**
+     * 窗口内不存在时添加值，判断和写入是原子的.
+     *
+     * @param value 值
+     * @return 添加成功返回true，窗口内可能已存在返回false
+     */
+    public boolean addIfAbsent(T value) {
+        return execute(ADD_SCRIPT, value, true);
+    }
+
+    /**
+     * 判断窗口内是否可能存在.
+     *
+     * @param value 值
+     * @return 不存在返回false
+     */
+    public boolean mightContain(T value) {
+        return execute(CONTAINS_SCRIPT, value, false);
+    }
+
+    private boolean execute(DefaultRedisScript<Long> script, T value, boolean ifAbsent) {
+        long generation = System.currentTimeMillis() / 1000 / sliceSeconds;
+        // 直接添加只写当前时间片
+        int keyCount = script == ADD_SCRIPT && !ifAbsent ? 1 : generations + 1;
+        List<String> keys = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            keys.add(generationKey.render(key, generation - i));
+        }
+        int[] offset = bloomFilterHelper.murmurHashOffset(value);
+        List<String> args = new ArrayList<>(offset.length + 2);
+        if (script == ADD_SCRIPT) {
+            args.add(String.valueOf((generation + generations + 1) * sliceSeconds));
+            args.add(ifAbsent ? "1" : "0");
+        }
+        for (int i : offset) {
+            args.add(String.valueOf(i));
+        }
+        Long result = RedisUtils.stringRedisTemplate().execute(script, keys, args.toArray());
+        return result != null && result == 1L;
+    }
+}
@@ -0,0 +1,79 @@
+package cn.bfay.cache.redis;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.TimeoutOptions;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import io.lettuce.core.protocol.CommandType;
+import io.lettuce.core.protocol.ProtocolKeyword;
+import io.lettuce.core.protocol.RedisCommand;
+import org.springframework.boot.autoconfigure.data.redis.LettuceClientConfigurationBuilderCustomizer;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按读写区分的命令超时.
+ * 读写超时应不大于spring.redis.timeout，未配置的一类使用spring.redis.timeout.
+ * 会替换spring boot设置的ClientOptions，集群拓扑刷新配置按spring boot相同的方式保留.
+ *
+ * @author wangjiannan
+ */
+public class RedisTimeoutCustomizer implements LettuceClientConfigurationBuilderCustomizer {
+    private static final Set<CommandType> READ_COMMANDS = EnumSet.of(
+        CommandType.GET, CommandType.MGET, CommandType.STRLEN, CommandType.GETBIT, CommandType.BITCOUNT,
+        CommandType.BITPOS, CommandType.HGET, CommandType.HMGET, CommandType.HGETALL, CommandType.HEXISTS,
+        CommandType.HLEN, CommandType.HKEYS, CommandType.HVALS, CommandType.HSCAN, CommandType.LRANGE,
+        CommandType.LINDEX, CommandType.LLEN, CommandType.SMEMBERS, CommandType.SISMEMBER, CommandType.SCARD,
+        CommandType.SSCAN, CommandType.PFCOUNT, CommandType.EXISTS, CommandType.TTL, CommandType.PTTL,
+        CommandType.TYPE, CommandType.SCAN, CommandType.ZRANGE, CommandType.ZSCORE, CommandType.ZCARD);
+
+    private final RedisProperties redisProperties;
+    private final long readTimeoutNanos;
+    private final long writeTimeoutNanos;
+
+    public RedisTimeoutCustomizer(RedisProperties redisProperties, Duration readTimeout, Duration writeTimeout) {
+        this.redisProperties = redisProperties;
+        Duration defaultTimeout = redisProperties.getTimeout() == null
+            ? Duration.ofSeconds(60) : redisProperties.getTimeout();
+        this.readTimeoutNanos = (readTimeout == null ? defaultTimeout : readTimeout).toNanos();
+        this.writeTimeoutNanos = (writeTimeout == null ? defaultTimeout : writeTimeout).toNanos();
+    }
+
+    @Override
+    public void customize(LettuceClientConfiguration.LettuceClientConfigurationBuilder builder) {
+        TimeoutOptions timeoutOptions = TimeoutOptions.builder().timeoutSource(new TimeoutOptions.TimeoutSource() {
+            @Override
+            public long getTimeout(RedisCommand<?, ?, ?> command) {
+                ProtocolKeyword type = command.getType();
+                return READ_COMMANDS.contains(type) ? readTimeoutNanos : writeTimeoutNanos;
+            }
+
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.NANOSECONDS;
+            }
+        }).build();
+        builder.clientOptions(clientOptionsBuilder().timeoutOptions(timeoutOptions).build());
+    }
+
+    private ClientOptions.Builder clientOptionsBuilder() {
+        if (redisProperties.getCluster() == null) {
+            return ClientOptions.builder();
+        }
+        ClusterClientOptions.Builder builder = ClusterClientOptions.builder();
+        RedisProperties.Lettuce.Cluster.Refresh refresh = redisProperties.getLettuce().getCluster().getRefresh();
+        ClusterTopologyRefreshOptions.Builder refreshBuilder = ClusterTopologyRefreshOptions.builder();
+        if (refresh.getPeriod() != null) {
+            refreshBuilder.enablePeriodicRefresh(refresh.getPeriod());
+        }
+        if (refresh.isAdaptive()) {
+            refreshBuilder.enableAllAdaptiveRefreshTriggers();
+        }
+        return builder.topologyRefreshOptions(refreshBuilder.build());
+    }
+}
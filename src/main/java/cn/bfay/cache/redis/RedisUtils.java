@@ -3,6 +3,7 @@ package cn.bfay.cache.redis;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -10,15 +11,26 @@ import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.BoundHashOperations;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -26,6 +38,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * redis工具类.
@@ -52,8 +66,32 @@ public class RedisUtils {
         RedisUtils.stringRedisTemplate = stringRedisTemplate;
     }
 
+    private static OffHeapCache localCache;
+
+    @Autowired(required = false)
+    public void setLocalCache(OffHeapCache localCache) {
+        RedisUtils.localCache = localCache;
+    }
+
+    private static RedisCircuitBreaker breaker;
+
+    @Autowired(required = false)
+    public void setBreaker(RedisCircuitBreaker breaker) {
+        RedisUtils.breaker = breaker;
+    }
+
+    private static RedisHedgedReader hedgedReader;
+
+    @Autowired(required = false)
+    public void setHedgedReader(RedisHedgedReader hedgedReader) {
+        RedisUtils.hedgedReader = hedgedReader;
+    }
+
+    private static final int HLL_BATCH_SIZE = 1000;
+    private static final int BLOOM_BATCH_SIZE = 1000;
     private static final ObjectMapper mapper = new ObjectMapper();
     private static RedisTemplate<String, Object> template;
+    private static GenericJackson2JsonRedisSerializer serializer;
 
     @PostConstruct
     public static void init() {
@@ -73,6 +111,7 @@ public class RedisUtils {
         template.setHashValueSerializer(serializer);
         template.afterPropertiesSet();
         RedisUtils.template = template;
+        RedisUtils.serializer = serializer;
     }
 
     /**
@@ -82,7 +121,8 @@ public class RedisUtils {
      * @param value String类型的值
      */
     public static void setValue(String key, String value) {
-        stringRedisTemplate.opsForValue().set(key, value);
+        guardedWrite(key, () -> stringRedisTemplate.opsForValue().set(key, value));
+        invalidateLocal(key);
     }
 
     /**
@@ -93,7 +133,8 @@ public class RedisUtils {
      * @param expire 过期时间,单位:秒
      */
     public static void setValue(String key, String value, long expire) {
-        stringRedisTemplate.opsForValue().set(key, value, expire, TimeUnit.SECONDS);
+        guardedWrite(key, () -> stringRedisTemplate.opsForValue().set(key, value, expire, TimeUnit.SECONDS));
+        invalidateLocal(key);
     }
 
     /**
@@ -103,7 +144,16 @@ public class RedisUtils {
      * @return 返回String
      */
     public static String getValue(String key) {
-        return stringRedisTemplate.opsForValue().get(key);
+        if (localCache != null) {
+            byte[] cached = localCache.get(key);
+            if (cached != null) {
+                return new String(cached, StandardCharsets.UTF_8);
+            }
+        }
+        if (breaker == null) {
+            return loadValue(key);
+        }
+        return breaker.read(() -> loadValue(key), () -> staleValue(key));
     }
 
     /**
@@ -113,7 +163,8 @@ public class RedisUtils {
      * @param value 值
      */
     public static void setValue(String key, Object value) {
-        template.opsForValue().set(key, value);
+        guardedWrite(key, () -> template.opsForValue().set(key, value));
+        invalidateLocal(key);
     }
 
     /**
@@ -124,7 +175,8 @@ public class RedisUtils {
      * @param expire 有效时间,单位:秒
      */
     public static void setValue(String key, Object value, long expire) {
-        template.opsForValue().set(key, value, expire, TimeUnit.SECONDS);
+        guardedWrite(key, () -> template.opsForValue().set(key, value, expire, TimeUnit.SECONDS));
+        invalidateLocal(key);
     }
 
     /**
@@ -136,16 +188,7 @@ public class RedisUtils {
      * @return 返回转换后的类型
      */
     public static <T> T getValue(String key, Class<T> clazz) {
-        String originValue = getValue(key);
-        if (originValue == null) {
-            return null;
-        }
-        try {
-            return mapper.readValue(originValue, clazz);
-        } catch (Exception e) {
-            logger.error(e.getMessage(), e);
-            return null;
-        }
+        return decode(getValue(key), mapper.constructType(clazz));
     }
 
     /**
@@ -157,8 +200,15 @@ public class RedisUtils {
      * @return 返回转换后的类型
      */
     public static <T> T getValue(String key, TypeReference<T> type) {
-        String originValue = getValue(key);
-        if (originValue == null) {
+        return decode(getValue(key), mapper.getTypeFactory().constructType(type));
+    }
+
+    /**
+     * 将读到的原始值转换成指定类型，转换失败记录日志返回null.
+     * {@link RedisPenetrationGuard}写入的空值占位直接返回null.
+     */
+    static <T> T decode(String originValue, JavaType type) {
+        if (originValue == null || RedisPenetrationGuard.NULL_VALUE.equals(originValue)) {
             return null;
         }
         try {
@@ -169,6 +219,29 @@ public class RedisUtils {
         }
     }
 
+    /**
+     * 序列化成不带类型信息的json.
+     */
+    static String encode(Object value) {
+        try {
+            return mapper.writeValueAsString(value);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    static StringRedisTemplate stringRedisTemplate() {
+        return stringRedisTemplate;
+    }
+
+    static JavaType constructType(Class<?> clazz) {
+        return mapper.constructType(clazz);
+    }
+
+    static JavaType constructType(TypeReference<?> type) {
+        return mapper.getTypeFactory().constructType(type);
+    }
+
     /**
      * 增加。初始0，步长1.
      *
@@ -176,7 +249,9 @@ public class RedisUtils {
      * @return long
      */
     public static Long increment(String key) {
-        return template.opsForValue().increment(key);
+        Long result = guardedCall(() -> template.opsForValue().increment(key));
+        invalidateLocal(key);
+        return result;
     }
 
     /**
@@ -187,7 +262,9 @@ public class RedisUtils {
      * @return long
      */
     public static Long increment(String key, long delta) {
-        return template.opsForValue().increment(key, delta);
+        Long result = guardedCall(() -> template.opsForValue().increment(key, delta));
+        invalidateLocal(key);
+        return result;
     }
 
     /**
@@ -198,7 +275,9 @@ public class RedisUtils {
      * @return long
      */
     public static Double increment(String key, double delta) {
-        return template.opsForValue().increment(key, delta);
+        Double result = guardedCall(() -> template.opsForValue().increment(key, delta));
+        invalidateLocal(key);
+        return result;
     }
 
     /**
@@ -208,7 +287,9 @@ public class RedisUtils {
      * @return long
      */
     public static Long decrement(String key) {
-        return template.opsForValue().decrement(key);
+        Long result = guardedCall(() -> template.opsForValue().decrement(key));
+        invalidateLocal(key);
+        return result;
     }
 
     /**
@@ -219,9 +300,111 @@ public class RedisUtils {
      * @return long
      */
     public static Long decrement(String key, long delta) {
-        return template.opsForValue().decrement(key, delta);
+        Long result = guardedCall(() -> template.opsForValue().decrement(key, delta));
+        invalidateLocal(key);
+        return result;
+    }
+
+    // ----- multi start ------
+
+    /**
+     * 批量获取值，优先读本地缓存，其余一次mget.
+     *
+     * @param keys  键列表
+     * @param clazz 需要转换成的类型
+     * @param <T>   类型
+     * @return 与keys一一对应，不存在或转换失败为null
+     */
+    public static <T> List<T> multiGetValue(List<String> keys, Class<T> clazz) {
+        return multiGetValue(keys, mapper.constructType(clazz));
+    }
+
+    /**
+     * 批量获取值，优先读本地缓存，其余一次mget.
+     *
+     * @param keys 键列表
+     * @param type 需要转换成的类型
+     * @param <T>  类型
+     * @return 与keys一一对应，不存在或转换失败为null
+     */
+    public static <T> List<T> multiGetValue(List<String> keys, TypeReference<T> type) {
+        return multiGetValue(keys, mapper.getTypeFactory().constructType(type));
+    }
+
+    static <T> List<T> multiGetValue(List<String> keys, JavaType type) {
+        List<String> originValues = multiGetValue(keys);
+        List<T> result = new ArrayList<>(originValues.size());
+        for (String originValue : originValues) {
+            result.add(decode(originValue, type));
+        }
+        return result;
+    }
+
+    /**
+     * 批量获取String类型的值，优先读本地缓存，其余一次mget，熔断时返回本地缓存中的旧值.
+     *
+     * @param keys 键列表
+     * @return 与keys一一对应，不存在为null
+     */
+    public static List<String> multiGetValue(List<String> keys) {
+        List<String> result = new ArrayList<>(keys.size());
+        List<String> missKeys = new ArrayList<>();
+        List<Integer> missIndexes = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] cached = localCache == null ? null : localCache.get(keys.get(i));
+            if (cached != null) {
+                result.add(new String(cached, StandardCharsets.UTF_8));
+            } else {
+                result.add(null);
+                missKeys.add(keys.get(i));
+                missIndexes.add(i);
+            }
+        }
+        if (missKeys.isEmpty()) {
+            return result;
+        }
+        long[] versions = localVersions(missKeys);
+        List<String> values = breaker == null ? stringRedisTemplate.opsForValue().multiGet(missKeys)
+            : breaker.read(() -> stringRedisTemplate.opsForValue().multiGet(missKeys), () -> staleValues(missKeys));
+        if (values == null) {
+            return result;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+            if (value != null) {
+                result.set(missIndexes.get(i), value);
+                fillLocal(missKeys.get(i), value, versions[i]);
+            }
+        }
+        return result;
     }
 
+    /**
+     * 批量设置值，一次pipeline.
+     *
+     * @param values 键值
+     * @param expire 有效时间,单位:秒
+     */
+    public static void multiSetValue(Map<String, ?> values, long expire) {
+        if (values.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(values.size());
+        List<byte[]> rawValues = new ArrayList<>(values.size());
+        values.forEach((key, value) -> {
+            keys.add(key);
+            rawValues.add(serializer.serialize(value));
+        });
+        guardedWrite(keys, () -> executePipelined(connection -> {
+            for (int i = 0; i < keys.size(); i++) {
+                connection.stringCommands().setEx(keys.get(i).getBytes(StandardCharsets.UTF_8), expire,
+                    rawValues.get(i));
+            }
+        }));
+        keys.forEach(RedisUtils::invalidateLocal);
+    }
+    // ----- multi end ------
+
     // ----- map start ------
 
     /**
@@ -232,7 +415,7 @@ public class RedisUtils {
      * @param value 值
      */
     public static void mapPutValue(String key, String field, Object value) {
-        template.boundHashOps(key).put(field, value);
+        guardedWrite(key, () -> template.boundHashOps(key).put(field, value));
     }
 
     /**
@@ -244,9 +427,11 @@ public class RedisUtils {
      * @param expire 有效时间,单位:秒
      */
     public static void mapPutValue(String key, String field, Object value, long expire) {
-        BoundHashOperations<String, Object, Object> ops = template.boundHashOps(key);
-        ops.put(field, value);
-        ops.expire(expire, TimeUnit.SECONDS);
+        guardedWrite(key, () -> {
+            BoundHashOperations<String, Object, Object> ops = template.boundHashOps(key);
+            ops.put(field, value);
+            ops.expire(expire, TimeUnit.SECONDS);
+        });
     }
 
     /**
@@ -258,9 +443,11 @@ public class RedisUtils {
      * @param date  有效时间
      */
     public static void mapPutValue(String key, String field, Object value, Date date) {
-        BoundHashOperations<String, Object, Object> ops = template.boundHashOps(key);
-        ops.put(field, value);
-        ops.expireAt(date);
+        guardedWrite(key, () -> {
+            BoundHashOperations<String, Object, Object> ops = template.boundHashOps(key);
+            ops.put(field, value);
+            ops.expireAt(date);
+        });
     }
 
     /**
@@ -270,7 +457,7 @@ public class RedisUtils {
      * @param map map对象实例
      */
     public static void mapPutMap(String key, Map<Object, Object> map) {
-        template.boundHashOps(key).putAll(map);
+        guardedWrite(key, () -> template.boundHashOps(key).putAll(map));
     }
 
     /**
@@ -281,9 +468,11 @@ public class RedisUtils {
      * @param expire 过期时间,单位:秒
      */
     public static void mapPutMap(String key, Map<Object, Object> map, long expire) {
-        BoundHashOperations<String, Object, Object> ops = template.boundHashOps(key);
-        ops.putAll(map);
-        ops.expire(expire, TimeUnit.SECONDS);
+        guardedWrite(key, () -> {
+            BoundHashOperations<String, Object, Object> ops = template.boundHashOps(key);
+            ops.putAll(map);
+            ops.expire(expire, TimeUnit.SECONDS);
+        });
     }
 
     /**
@@ -294,9 +483,11 @@ public class RedisUtils {
      * @param date 有效时间
      */
     public static void mapPutMap(String key, Map<Object, Object> map, Date date) {
-        BoundHashOperations<String, Object, Object> ops = template.boundHashOps(key);
-        ops.putAll(map);
-        ops.expireAt(date);
+        guardedWrite(key, () -> {
+            BoundHashOperations<String, Object, Object> ops = template.boundHashOps(key);
+            ops.putAll(map);
+            ops.expireAt(date);
+        });
     }
 
     /**
@@ -306,7 +497,7 @@ public class RedisUtils {
      * @return 返回map
      */
     public static Map<Object, Object> mapGetMap(String key) {
-        return template.opsForHash().entries(key);
+        return guardedCall(() -> template.opsForHash().entries(key));
     }
 
     /**
@@ -359,7 +550,10 @@ public class RedisUtils {
      * @return 返回值
      */
     public static Object mapGetValue(String key, String field) {
-        return template.opsForHash().get(key, field);
+        if (breaker == null) {
+            return loadMapValue(key, field);
+        }
+        return breaker.read(() -> loadMapValue(key, field), () -> null);
     }
 
     /**
@@ -413,9 +607,7 @@ public class RedisUtils {
      * @param field 字段名称
      */
     public static void mapDeleteValue(String key, String field) {
-        if (template.opsForHash().hasKey(key, field)) {
-            template.opsForHash().delete(key, field);
-        }
+        guardedWrite(key, () -> template.opsForHash().delete(key, field));
     }
     // ----- map end ------
 
@@ -429,7 +621,7 @@ public class RedisUtils {
      * @return long
      */
     public static Long listRightPush(String key, Object value) {
-        return template.opsForList().rightPush(key, value);
+        return guardedCall(() -> template.opsForList().rightPush(key, value));
     }
 
     /**
@@ -441,7 +633,7 @@ public class RedisUtils {
      * @return long
      */
     public static Long listRightPush(String key, Object value, long expire) {
-        return template.opsForList().rightPush(key, value, expire);
+        return guardedCall(() -> template.opsForList().rightPush(key, value, expire));
     }
 
     /**
@@ -452,7 +644,7 @@ public class RedisUtils {
      * @return long
      */
     public static Long listRightPushAll(String key, List<Object> value) {
-        return template.opsForList().rightPushAll(key, value);
+        return guardedCall(() -> template.opsForList().rightPushAll(key, value));
     }
 
     /**
@@ -464,7 +656,7 @@ public class RedisUtils {
      * @return long
      */
     public static Long listRightPushAll(String key, List<Object> value, long expire) {
-        return template.opsForList().rightPushAll(key, value, expire);
+        return guardedCall(() -> template.opsForList().rightPushAll(key, value, expire));
     }
 
     /**
@@ -474,7 +666,7 @@ public class RedisUtils {
      * @return long
      */
     public static Long listGetSize(String key) {
-        return template.opsForList().size(key);
+        return guardedCall(() -> template.opsForList().size(key));
     }
 
     /**
@@ -486,7 +678,7 @@ public class RedisUtils {
      * @return list
      */
     public static List<Object> listGetRange(String key, long start, long end) {
-        return template.opsForList().range(key, start, end);
+        return guardedCall(() -> template.opsForList().range(key, start, end));
     }
 
     /**
@@ -497,7 +689,7 @@ public class RedisUtils {
      * @return Object
      */
     public static Object listGetIndex(String key, long index) {
-        return template.opsForList().index(key, index);
+        return guardedCall(() -> template.opsForList().index(key, index));
     }
 
     /**
@@ -508,7 +700,7 @@ public class RedisUtils {
      * @param value 值
      */
     public static void listUpdateIndex(String key, long index, Object value) {
-        template.opsForList().set(key, index, value);
+        guardedWrite(key, () -> template.opsForList().set(key, index, value));
     }
 
     /**
@@ -520,7 +712,7 @@ public class RedisUtils {
      * @return 移除的个数
      */
     public static Long listRemove(String key, long count, Object value) {
-        return template.opsForList().remove(key, count, value);
+        return guardedCall(() -> template.opsForList().remove(key, count, value));
     }
 
     // ----- list end ------
@@ -534,7 +726,7 @@ public class RedisUtils {
      * @return 成功个数
      */
     public static Long setAdd(String key, Object... values) {
-        return template.opsForSet().add(key, values);
+        return guardedCall(() -> template.opsForSet().add(key, values));
     }
 
     /**
@@ -546,9 +738,11 @@ public class RedisUtils {
      * @return 成功个数
      */
     public static Long setAdd(String key, long expire, Object... values) {
-        Long count = template.opsForSet().add(key, values);
-        template.expire(key, expire, TimeUnit.SECONDS);
-        return count;
+        return guardedCall(() -> {
+            Long count = template.opsForSet().add(key, values);
+            template.expire(key, expire, TimeUnit.SECONDS);
+            return count;
+        });
     }
 
     /**
@@ -559,7 +753,7 @@ public class RedisUtils {
      * @return 移除的个数
      */
     public static Long setRemove(String key, Object... values) {
-        return template.opsForSet().remove(key, values);
+        return guardedCall(() -> template.opsForSet().remove(key, values));
     }
 
     /**
@@ -569,7 +763,7 @@ public class RedisUtils {
      * @return long
      */
     public static Long setGetSize(String key) {
-        return template.opsForSet().size(key);
+        return guardedCall(() -> template.opsForSet().size(key));
     }
 
     /**
@@ -579,7 +773,7 @@ public class RedisUtils {
      * @return set
      */
     public static Set<Object> setGetMember(String key) {
-        return template.opsForSet().members(key);
+        return guardedCall(() -> template.opsForSet().members(key));
     }
 
     /**
@@ -590,10 +784,187 @@ public class RedisUtils {
      * @return true 存在 false不存在
      */
     public static Boolean setHasMember(String key, Object value) {
-        return template.opsForSet().isMember(key, value);
+        return guardedCall(() -> template.opsForSet().isMember(key, value));
     }
     // ----- set end ------
 
+    // ----- hyperloglog start ------
+
+    /**
+     * 将数据放入hyperloglog，用于基数统计，每个key最多约12KB，标准误差0.81%.
+     *
+     * @param key    键
+     * @param values 值 可以是多个
+     * @return 基数估计值是否改变，1改变 0未改变
+     */
+    public static Long hllAdd(String key, Object... values) {
+        return guardedCall(() -> template.opsForHyperLogLog().add(key, values));
+    }
+
+    /**
+     * 批量将数据放入hyperloglog，每HLL_BATCH_SIZE个值一次pfadd，一次pipeline.
+     *
+     * @param key    键
+     * @param values 值
+     * @param expire 有效时间,单位:秒，小于等于0不设置
+     */
+    public static void hllAddAll(String key, Collection<?> values, long expire) {
+        if (values.isEmpty()) {
+            return;
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> rawValues = new ArrayList<>(values.size());
+        for (Object value : values) {
+            rawValues.add(serializer.serialize(value));
+        }
+        guardedWrite(key, () -> executePipelined(connection -> {
+            for (int from = 0; from < rawValues.size(); from += HLL_BATCH_SIZE) {
+                List<byte[]> chunk = rawValues.subList(from, Math.min(rawValues.size(), from + HLL_BATCH_SIZE));
+                connection.hyperLogLogCommands().pfAdd(rawKey, chunk.toArray(new byte[0][]));
+            }
+            if (expire > 0) {
+                connection.keyCommands().expire(rawKey, expire);
+            }
+        }));
+    }
+
+    /**
+     * 获取基数估计值，多个key时返回并集的基数.
+     *
+     * @param keys 键 可以是多个
+     * @return long
+     */
+    public static Long hllCount(String... keys) {
+        return guardedCall(() -> template.opsForHyperLogLog().size(keys));
+    }
+
+    /**
+     * 合并多个hyperloglog到目标key.
+     *
+     * @param destKey    目标键
+     * @param sourceKeys 源键
+     * @return 合并后的基数估计值
+     */
+    public static Long hllMerge(String destKey, String... sourceKeys) {
+        return guardedCall(() -> template.opsForHyperLogLog().union(destKey, sourceKeys));
+    }
+    // ----- hyperloglog end ------
+
+    // ----- bitmap start ------
+
+    /**
+     * 设置bitmap的位，适用于整数id的精确统计，1亿个id约12MB.
+     *
+     * @param key    键
+     * @param offset 位置，通常为id
+     * @param value  true为1 false为0
+     * @return 原来的值
+     */
+    public static Boolean bitSet(String key, long offset, boolean value) {
+        return guardedCall(() -> stringRedisTemplate.opsForValue().setBit(key, offset, value));
+    }
+
+    /**
+     * 批量设置bitmap的位为1，一次pipeline.
+     *
+     * @param key     键
+     * @param offsets 位置
+     * @param expire  有效时间,单位:秒，小于等于0不设置
+     */
+    public static void bitSetAll(String key, Collection<Long> offsets, long expire) {
+        if (offsets.isEmpty()) {
+            return;
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        guardedWrite(key, () -> executePipelined(connection -> {
+            for (Long offset : offsets) {
+                connection.stringCommands().setBit(rawKey, offset, true);
+            }
+            if (expire > 0) {
+                connection.keyCommands().expire(rawKey, expire);
+            }
+        }));
+    }
+
+    /**
+     * 获取bitmap的位.
+     *
+     * @param key    键
+     * @param offset 位置
+     * @return true为1 false为0
+     */
+    public static Boolean bitGet(String key, long offset) {
+        return guardedCall(() -> stringRedisTemplate.opsForValue().getBit(key, offset));
+    }
+
+    /**
+     * 批量获取bitmap的位，一次pipeline.
+     *
+     * @param key     键
+     * @param offsets 位置
+     * @return 与offsets顺序一致的结果
+     */
+    public static List<Boolean> bitGetAll(String key, List<Long> offsets) {
+        if (offsets.isEmpty()) {
+            return new ArrayList<>();
+        }
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        RedisCallback<Object> getBits = connection -> {
+            for (Long offset : offsets) {
+                connection.stringCommands().getBit(rawKey, offset);
+            }
+            return null;
+        };
+        List<Object> bits = guardedCall(() -> stringRedisTemplate.executePipelined(getBits));
+        List<Boolean> result = new ArrayList<>(bits.size());
+        for (Object bit : bits) {
+            result.add(Boolean.TRUE.equals(bit));
+        }
+        return result;
+    }
+
+    /**
+     * 统计bitmap中为1的位数.
+     *
+     * @param key 键
+     * @return long
+     */
+    public static Long bitCount(String key) {
+        return guardedCall(() -> stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+            connection.stringCommands().bitCount(key.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * 统计bitmap指定字节范围中为1的位数.
+     *
+     * @param key   键
+     * @param start 开始字节
+     * @param end   结束字节，-1为最后一个字节
+     * @return long
+     */
+    public static Long bitCount(String key, long start, long end) {
+        return guardedCall(() -> stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+            connection.stringCommands().bitCount(key.getBytes(StandardCharsets.UTF_8), start, end)));
+    }
+
+    /**
+     * 对多个bitmap做位运算，结果存入目标key，如AND求交集、OR求并集.
+     *
+     * @param op      运算
+     * @param destKey 目标键
+     * @param keys    源键，NOT时只能有一个
+     * @return 目标key的字节长度
+     */
+    public static Long bitOp(RedisStringCommands.BitOperation op, String destKey, String... keys) {
+        byte[][] rawKeys = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            rawKeys[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return guardedCall(() -> stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+            connection.stringCommands().bitOp(op, destKey.getBytes(StandardCharsets.UTF_8), rawKeys)));
+    }
+    // ----- bitmap end ------
+
     /**
      * setNX.
      *
@@ -602,7 +973,9 @@ public class RedisUtils {
      * @return boolean
      */
     public static Boolean setNx(String key, Object value) {
-        return template.opsForValue().setIfAbsent(key, value);
+        Boolean result = guardedCall(() -> template.opsForValue().setIfAbsent(key, value));
+        invalidateLocal(key);
+        return result;
     }
 
     /**
@@ -614,7 +987,23 @@ public class RedisUtils {
      * @return boolean
      */
     public static Boolean setNx(String key, Object value, long expire) {
-        return template.opsForValue().setIfAbsent(key, value, expire, TimeUnit.SECONDS);
+        Boolean result = guardedCall(() -> template.opsForValue().setIfAbsent(key, value, expire, TimeUnit.SECONDS));
+        invalidateLocal(key);
+        return result;
+    }
+
+    /**
+     * setNX，不经过熔断器，用于锁.
+     *
+     * @param key    键
+     * @param value  值
+     * @param expire 过期时间，秒
+     * @return boolean
+     */
+    static Boolean setNxDirect(String key, Object value, long expire) {
+        Boolean result = template.opsForValue().setIfAbsent(key, value, expire, TimeUnit.SECONDS);
+        invalidateLocal(key);
+        return result;
     }
 
     /**
@@ -625,9 +1014,242 @@ public class RedisUtils {
      * @return string
      */
     public static String getSet(String key, String value) {
-        return stringRedisTemplate.opsForValue().getAndSet(key, value);
+        String oldValue = guardedCall(() -> stringRedisTemplate.opsForValue().getAndSet(key, value));
+        invalidateLocal(key);
+        return oldValue;
+    }
+
+
+    private static String loadValue(String key) {
+        long version = localCache == null ? 0 : localCache.version(key);
+        String value;
+        if (hedgedReader == null) {
+            value = stringRedisTemplate.opsForValue().get(key);
+        } else {
+            byte[] raw = hedgedReader.get(key.getBytes(StandardCharsets.UTF_8));
+            value = raw == null ? null : new String(raw, StandardCharsets.UTF_8);
+        }
+        if (value != null) {
+            fillLocal(key, value, version);
+        }
+        return value;
+    }
+
+    /**
+     * 读取前的本地缓存版本.
+     */
+    private static long[] localVersions(List<String> keys) {
+        long[] versions = new long[keys.size()];
+        if (localCache != null) {
+            for (int i = 0; i < versions.length; i++) {
+                versions[i] = localCache.version(keys.get(i));
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * 回填本地缓存，读取期间key被删除(有并发写)时放弃.
+     */
+    private static void fillLocal(String key, String value, long version) {
+        if (localCache != null) {
+            localCache.putIfVersion(key, value.getBytes(StandardCharsets.UTF_8), version);
+        }
+    }
+
+    private static Object loadMapValue(String key, String field) {
+        if (hedgedReader == null) {
+            return template.opsForHash().get(key, field);
+        }
+        byte[] raw = hedgedReader.hget(key.getBytes(StandardCharsets.UTF_8), field.getBytes(StandardCharsets.UTF_8));
+        return serializer.deserialize(raw);
+    }
+
+    /**
+     * 熔断时的降级读：本地缓存中的旧值.
+     */
+    private static String staleValue(String key) {
+        if (localCache == null) {
+            return null;
+        }
+        byte[] stale = localCache.getStale(key);
+        if (stale == null) {
+            return null;
+        }
+        breaker.markStale(key);
+        return new String(stale, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 熔断时的批量降级读：本地缓存中的旧值，全部没有时返回null.
+     */
+    private static List<String> staleValues(List<String> keys) {
+        List<String> values = new ArrayList<>(keys.size());
+        boolean found = false;
+        for (String key : keys) {
+            String value = staleValue(key);
+            found |= value != null;
+            values.add(value);
+        }
+        return found ? values : null;
+    }
+
+    private static void guardedWrite(String key, Runnable write) {
+        if (breaker == null) {
+            write.run();
+        } else {
+            breaker.write(key, write);
+        }
+    }
+
+    private static void guardedWrite(Collection<String> keys, Runnable write) {
+        if (breaker == null) {
+            write.run();
+        } else {
+            breaker.write(keys, write);
+        }
+    }
+
+    private static <T> T guardedCall(Supplier<T> command) {
+        return breaker == null ? command.get() : breaker.call(command);
+    }
+
+    static void invalidateLocal(String key) {
+        if (localCache != null) {
+            localCache.invalidate(key);
+        }
+    }
+
+    /**
+     * 从redis重新读取并更新本地缓存.
+     *
+     * @param key 键
+     */
+    static void refreshLocal(String key) {
+        if (localCache == null) {
+            return;
+        }
+        long version = localCache.version(key);
+        String value = stringRedisTemplate.opsForValue().get(key);
+        if (value == null) {
+            localCache.invalidate(key);
+        } else {
+            fillLocal(key, value, version);
+        }
+    }
+
+    /**
+     * 在一次pipeline中执行写操作.
+     *
+     * @param writes 写操作
+     */
+    static void executePipelined(Consumer<RedisConnection> writes) {
+        template.executePipelined((RedisCallback<Object>) connection -> {
+            writes.accept(connection);
+            return null;
+        });
+    }
+
+    /**
+     * 按setValue(String, Object)相同的方式序列化.
+     *
+     * @param value 值
+     * @return 字节
+     */
+    static byte[] serialize(Object value) {
+        return serializer.serialize(value);
+    }
+
+    // ----- warm up start ------
+
+    /**
+     * 建立连接并ping.
+     */
+    static void connect() {
+        try (RedisConnection connection = factory.getConnection()) {
+            connection.ping();
+        }
+    }
+
+    /**
+     * 预加载lua脚本.
+     *
+     * @param script 脚本
+     * @return sha1
+     */
+    static String loadScript(RedisScript<?> script) {
+        byte[] raw = script.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        return template.execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(raw));
+    }
+
+    /**
+     * 预热序列化器.
+     *
+     * @param iterations 次数
+     */
+    static void warmUpCodec(int iterations) throws IOException {
+        Map<String, Object> sample = new HashMap<>();
+        sample.put("id", 1L);
+        sample.put("name", "warm-up");
+        sample.put("rate", 0.5D);
+        sample.put("time", LocalDateTime.now());
+        sample.put("items", Arrays.asList("a", "b", "c"));
+        for (int i = 0; i < iterations; i++) {
+            serializer.deserialize(serializer.serialize(sample));
+            mapper.readValue(mapper.writeValueAsString(sample), Map.class);
+        }
     }
 
+    /**
+     * scan匹配的key.
+     *
+     * @param pattern 匹配模式
+     * @param limit   最大数量
+     * @return key列表
+     */
+    static List<String> scanKeys(String pattern, int limit) {
+        return stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> keys = new ArrayList<>();
+            ScanOptions options = ScanOptions.scanOptions().match(pattern).count(500).build();
+            try (Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+                while (cursor.hasNext() && keys.size() < limit) {
+                    keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+            }
+            return keys;
+        });
+    }
+
+    /**
+     * pipeline批量读取并放入本地缓存，返回读到的个数.
+     *
+     * @param keys 键列表
+     * @return 读到值的个数
+     */
+    static int prefetch(List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        long[] versions = localVersions(keys);
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        int count = 0;
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
+            if (value != null) {
+                count++;
+                fillLocal(keys.get(i), (String) value, versions[i]);
+            }
+        }
+        return count;
+    }
+    // ----- warm up end ------
 
     //public static Boolean setNx(String key, Object value, Duration timeout) {
     //    return template.opsForValue().setIfAbsent(key, value, timeout);
@@ -642,7 +1264,7 @@ public class RedisUtils {
      * @return true:有, false:无
      */
     public static Boolean hasKey(String key) {
-        return template.hasKey(key);
+        return guardedCall(() -> template.hasKey(key));
     }
 
     /**
@@ -651,7 +1273,19 @@ public class RedisUtils {
      * @param key 键
      */
     public static void delete(String key) {
+        guardedWrite(key, () -> template.delete(key));
+        invalidateLocal(key);
+    }
+
+    /**
+     * 删除键值，不经过熔断器，用于锁.
+     * 锁的释放不能被丢弃或排队重放：排队的del在恢复后执行时锁可能已被其他人持有.
+     *
+     * @param key 键
+     */
+    static void deleteDirect(String key) {
         template.delete(key);
+        invalidateLocal(key);
     }
 
     /**
@@ -662,7 +1296,7 @@ public class RedisUtils {
      * @return 操作结果
      */
     public static Boolean expire(String key, long timeout) {
-        return template.expire(key, timeout, TimeUnit.SECONDS);
+        return guardedCall(() -> template.expire(key, timeout, TimeUnit.SECONDS));
     }
 
     /**
@@ -674,7 +1308,7 @@ public class RedisUtils {
      * @return 操作结果
      */
     public static Boolean expire(String key, long timeout, TimeUnit unit) {
-        return template.expire(key, timeout, unit);
+        return guardedCall(() -> template.expire(key, timeout, unit));
     }
 
     /**
@@ -686,7 +1320,7 @@ public class RedisUtils {
      * @return 秒
      */
     public static Long getExpireTime(String key) {
-        return template.getExpire(key, TimeUnit.SECONDS);
+        return guardedCall(() -> template.getExpire(key, TimeUnit.SECONDS));
     }
     // ----- common end ------
 
@@ -694,28 +1328,78 @@ public class RedisUtils {
      * 根据给定的布隆过滤器添加值.
      */
     public <T> void addByBloomFilter(BloomFilterHelper<T> bloomFilterHelper, String key, T value) {
+        bloomAdd(bloomFilterHelper, key, value);
+    }
+
+    /**
+     * 根据给定的布隆过滤器判断值是否存在.
+     */
+    public <T> boolean includeByBloomFilter(BloomFilterHelper<T> bloomFilterHelper, String key, T value) {
+        return bloomContains(bloomFilterHelper, key, value);
+    }
+
+    /**
+     * 布隆过滤器添加值，所有setbit在一次pipeline中执行.
+     */
+    static <T> void bloomAdd(BloomFilterHelper<T> bloomFilterHelper, String key, T value) {
         Preconditions.checkArgument(bloomFilterHelper != null, "bloomFilterHelper不能为空");
         int[] offset = bloomFilterHelper.murmurHashOffset(value);
-        for (int i : offset) {
-            template.opsForValue().setBit(key, i, true);
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        executePipelined(connection -> {
+            for (int i : offset) {
+                connection.stringCommands().setBit(rawKey, i, true);
+            }
+        });
+    }
+
+    /**
+     * 布隆过滤器批量添加值，每BLOOM_BATCH_SIZE个值一次pipeline.
+     */
+    static <T> void bloomAddAll(BloomFilterHelper<T> bloomFilterHelper, String key, Collection<? extends T> values) {
+        Preconditions.checkArgument(bloomFilterHelper != null, "bloomFilterHelper不能为空");
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        List<int[]> offsets = new ArrayList<>(BLOOM_BATCH_SIZE);
+        for (T value : values) {
+            offsets.add(bloomFilterHelper.murmurHashOffset(value));
+            if (offsets.size() == BLOOM_BATCH_SIZE) {
+                bloomSetBits(rawKey, offsets);
+                offsets.clear();
+            }
+        }
+        if (!offsets.isEmpty()) {
+            bloomSetBits(rawKey, offsets);
         }
     }
 
+    private static void bloomSetBits(byte[] rawKey, List<int[]> offsets) {
+        executePipelined(connection -> {
+            for (int[] offset : offsets) {
+                for (int i : offset) {
+                    connection.stringCommands().setBit(rawKey, i, true);
+                }
+            }
+        });
+    }
+
     /**
-     * 根据给定的布隆过滤器判断值是否存在.
+     * 布隆过滤器判断值是否存在，所有getbit在一次pipeline中执行.
      */
-    public <T> boolean includeByBloomFilter(BloomFilterHelper<T> bloomFilterHelper, String key, T value) {
+    static <T> boolean bloomContains(BloomFilterHelper<T> bloomFilterHelper, String key, T value) {
         Preconditions.checkArgument(bloomFilterHelper != null, "bloomFilterHelper不能为空");
         int[] offset = bloomFilterHelper.murmurHashOffset(value);
-        boolean result = true;
-        for (int i : offset) {
-            Boolean bl = template.opsForValue().getBit(key, i);
-            if (bl == null || !bl) {
-                result = false;
-                break;
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        List<Object> bits = template.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i : offset) {
+                connection.stringCommands().getBit(rawKey, i);
+            }
+            return null;
+        });
+        for (Object bit : bits) {
+            if (!Boolean.TRUE.equals(bit)) {
+                return false;
             }
         }
-        return result;
+        return true;
     }
     //public <T> boolean includeByBloomFilter(BloomFilterHelper<T> bloomFilterHelper, String key, T value) {
     //    Preconditions.checkArgument(bloomFilterHelper != null, "bloomFilterHelper不能为空");
@@ -0,0 +1,69 @@
+package cn.bfay.cache.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+
+/**
+ * 启动预热.
+ * ApplicationRunner在readiness变为ACCEPTING_TRAFFIC之前执行，预热完成后才对外提供服务.
+ * 预热失败只记录日志，不阻止启动.
+ *
+ * @author wangjiannan
+ */
+public class RedisWarmUp implements ApplicationRunner, Ordered {
+    private static final Logger log = LoggerFactory.getLogger(RedisWarmUp.class);
+
+    private final CacheProperties.WarmUp properties;
+    private final ObjectProvider<RedisScript<?>> scripts;
+
+    public RedisWarmUp(CacheProperties.WarmUp properties, ObjectProvider<RedisScript<?>> scripts) {
+        this.properties = properties;
+        this.scripts = scripts;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.currentTimeMillis();
+        try {
+            RedisUtils.connect();
+        } catch (Exception e) {
+            log.warn("redis预热：建立连接失败", e);
+            return;
+        }
+        scripts.orderedStream().forEach(script -> {
+            try {
+                RedisUtils.loadScript(script);
+            } catch (Exception e) {
+                log.warn("redis预热：加载脚本失败 " + script.getSha1(), e);
+            }
+        });
+        try {
+            RedisUtils.warmUpCodec(properties.getCodecIterations());
+        } catch (Exception e) {
+            log.warn("redis预热：序列化预热失败", e);
+        }
+        int prefetched = 0;
+        for (String pattern : properties.getPrefetchPatterns()) {
+            try {
+                List<String> keys = RedisUtils.scanKeys(pattern, properties.getPrefetchLimit());
+                prefetched += RedisUtils.prefetch(keys);
+            } catch (Exception e) {
+                log.warn("redis预热：预读失败 " + pattern, e);
+            }
+        }
+        log.info(">>>Redis warm up finished, prefetched {} keys in {}ms", prefetched,
+            System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
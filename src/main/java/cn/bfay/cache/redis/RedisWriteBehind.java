@@ -0,0 +1,367 @@
+package cn.bfay.cache.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 写后(write-behind)缓存.
+ * 写操作先进入按key合并的缓冲区，同一个key在一次刷新前的多次写只保留最后一次(hash类型合并字段)，
+ * 由单个刷新线程定时或缓冲区达到batchSize时批量写入{@link CacheWriter}，失败按maxAttempts重试.
+ * redisMode为SYNC时redis立即写入，只合并后端写；为COALESCED时redis写也合并，刷新时一次pipeline写入.
+ * 缓冲区超过maxPending时由调用线程同步刷新，关闭后的写入达到batchSize时也由调用线程同步刷新.
+ *
+ * @author wangjiannan
+ */
+public class RedisWriteBehind implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(RedisWriteBehind.class);
+
+    /**
+     * redis写入方式.
+     */
+    public enum RedisMode {
+        /**
+         * redis立即写入.
+         */
+        SYNC,
+        /**
+         * redis写入也合并，刷新时写入.
+         */
+        COALESCED
+    }
+
+    private final CacheWriter writer;
+    private final RedisMode redisMode;
+    private final int batchSize;
+    private final int maxPending;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+    // 已取出正在刷新的条目，用于刷新期间的读
+    private final ConcurrentHashMap<String, Pending> inflight = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 构造.
+     *
+     * @param writer             后端存储写入器
+     * @param redisMode          redis写入方式
+     * @param flushIntervalMillis 刷新间隔，毫秒
+     * @param batchSize          每批最大条目数
+     * @param maxPending         缓冲区最大条目数
+     * @param maxAttempts        最大尝试次数
+     * @param retryBackoffMillis 重试间隔，毫秒
+     */
+    public RedisWriteBehind(CacheWriter writer, RedisMode redisMode, long flushIntervalMillis, int batchSize,
+                            int maxPending, int maxAttempts, long retryBackoffMillis) {
+        this.writer = writer;
+        this.redisMode = redisMode;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffMillis = retryBackoffMillis;
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 设置值.
+     *
+     * @param key    键
+     * @param value  值
+     * @param expire 有效时间,单位:秒
+     */
+    public void setValue(String key, Object value, long expire) {
+        if (redisMode == RedisMode.SYNC) {
+            RedisUtils.setValue(key, value, expire);
+        }
+        pending.put(key, Pending.value(value, expire));
+        afterWrite();
+    }
+
+    /**
+     * 设置hash的多个字段，刷新前对同一个key的多次调用合并字段.
+     *
+     * @param key    键
+     * @param map    字段
+     * @param expire 有效时间,单位:秒
+     */
+    public void mapPutMap(String key, Map<String, Object> map, long expire) {
+        if (redisMode == RedisMode.SYNC) {
+            RedisUtils.mapPutMap(key, new HashMap<>(map), expire);
+        }
+        pending.merge(key, Pending.hash(map, expire), Pending::merge);
+        afterWrite();
+    }
+
+    /**
+     * 删除.
+     *
+     * @param key 键
+     */
+    public void delete(String key) {
+        if (redisMode == RedisMode.SYNC) {
+            RedisUtils.delete(key);
+        }
+        pending.put(key, Pending.DELETED);
+        afterWrite();
+    }
+
+    /**
+     * 获取值，优先返回尚未刷新的写入.
+     * 未刷新的值按写入redis的方式序列化后再转换，返回的是副本，与从redis读到的结果一致.
+     * 未刷新的hash写入覆盖在redis中已有的字段上(合并了删除时不读redis).
+     *
+     * @param key   键
+     * @param clazz 需要转换成的类型
+     * @param <T>   类型
+     * @return 返回转换后的类型
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getValue(String key, Class<T> clazz) {
+        Pending p = pending.get(key);
+        if (p == null) {
+            p = inflight.get(key);
+        }
+        if (p == null) {
+            return RedisUtils.getValue(key, clazz);
+        }
+        if (p.type == Pending.Type.DELETE) {
+            return null;
+        }
+        Object value = p.value;
+        if (p.type == Pending.Type.HASH && !p.replace) {
+            Map<Object, Object> merged = new LinkedHashMap<>(RedisUtils.mapGetMap(key));
+            merged.putAll((Map<String, Object>) p.value);
+            value = merged;
+        }
+        return RedisUtils.decode(RedisUtils.encode(value), RedisUtils.constructType(clazz));
+    }
+
+    /**
+     * 缓冲区条目数.
+     *
+     * @return int
+     */
+    public int getPendingSize() {
+        return pending.size();
+    }
+
+    /**
+     * 刷新全部缓冲.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            // 只刷新开始时已有的条目，避免持续写入时一直占用刷新线程
+            int batches = pending.size() / batchSize + 1;
+            for (int i = 0; i < batches && !pending.isEmpty(); i++) {
+                if (!flushBatch()) {
+                    return;
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (!pending.isEmpty()) {
+            log.error("write-behind关闭时仍有{}个条目未写入", pending.size());
+        }
+    }
+
+    private void afterWrite() {
+        int size = pending.size();
+        if (size >= maxPending) {
+            flush();
+        } else if (size >= batchSize) {
+            try {
+                scheduler.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // 已关闭，没有刷新线程，由调用线程同步刷新
+                log.warn("write-behind已关闭，同步刷新{}个条目", size);
+                flush();
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("write-behind刷新异常", e);
+        }
+    }
+
+    /**
+     * 取出一批并写入，返回是否成功.
+     * 条目先放入inflight再从pending删除，失败时先放回pending再从inflight删除，期间getValue总能读到未写入的值.
+     */
+    private boolean flushBatch() {
+        Map<String, Pending> batch = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext() && batch.size() < batchSize) {
+            Map.Entry<String, Pending> entry = iterator.next();
+            inflight.put(entry.getKey(), entry.getValue());
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                batch.put(entry.getKey(), entry.getValue());
+            } else {
+                inflight.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        boolean written = false;
+        try {
+            for (int attempt = 1; attempt <= maxAttempts && !written; attempt++) {
+                try {
+                    write(batch);
+                    written = true;
+                } catch (Exception e) {
+                    log.warn("write-behind写入失败，第" + attempt + "次", e);
+                    if (attempt < maxAttempts) {
+                        Thread.sleep(retryBackoffMillis);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!written) {
+                // 放回缓冲区，期间有新的写入时失败的写入放在新写入之前合并，hash的旧字段和删除不会丢失
+                batch.forEach((key, failed) -> pending.merge(key, failed, (newer, old) -> Pending.combine(old, newer)));
+            }
+            inflight.keySet().removeAll(batch.keySet());
+        }
+        return written;
+    }
+
+    private void write(Map<String, Pending> batch) throws Exception {
+        Map<String, Object> entries = new LinkedHashMap<>();
+        List<String> deletes = new ArrayList<>();
+        List<String> replaced = new ArrayList<>();
+        batch.forEach((key, p) -> {
+            if (p.type == Pending.Type.DELETE) {
+                deletes.add(key);
+            } else {
+                entries.put(key, p.value);
+                if (p.replace) {
+                    replaced.add(key);
+                }
+            }
+        });
+        if (redisMode == RedisMode.COALESCED) {
+            writeRedis(batch);
+        }
+        // 合并了删除的hash，先删除旧数据再写入
+        if (!replaced.isEmpty()) {
+            writer.delete(replaced);
+        }
+        if (!entries.isEmpty()) {
+            writer.write(entries);
+        }
+        if (!deletes.isEmpty()) {
+            writer.delete(deletes);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeRedis(Map<String, Pending> batch) {
+        RedisUtils.executePipelined(connection -> batch.forEach((key, p) -> {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            if (p.type == Pending.Type.DELETE) {
+                connection.keyCommands().del(rawKey);
+                return;
+            }
+            if (p.type == Pending.Type.VALUE) {
+                connection.stringCommands().setEx(rawKey, p.expire, RedisUtils.serialize(p.value));
+                return;
+            }
+            if (p.replace) {
+                connection.keyCommands().del(rawKey);
+            }
+            Map<byte[], byte[]> fields = new HashMap<>();
+            ((Map<String, Object>) p.value).forEach((field, value) ->
+                fields.put(field.getBytes(StandardCharsets.UTF_8), RedisUtils.serialize(value)));
+            connection.hashCommands().hMSet(rawKey, fields);
+            connection.keyCommands().expire(rawKey, p.expire);
+        }));
+        batch.keySet().forEach(RedisUtils::invalidateLocal);
+    }
+
+    /**
+     * 待写入的条目.
+     */
+    private static final class Pending {
+        private static final Pending DELETED = new Pending(Type.DELETE, null, 0, false);
+
+        private enum Type {
+            VALUE, HASH, DELETE
+        }
+
+        private final Type type;
+        private final Object value;
+        private final long expire;
+        // hash写入前是否先删除旧的key(合并了删除或其他类型的写)
+        private final boolean replace;
+
+        private Pending(Type type, Object value, long expire, boolean replace) {
+            this.type = type;
+            this.value = value;
+            this.expire = expire;
+            this.replace = replace;
+        }
+
+        static Pending value(Object value, long expire) {
+            return new Pending(Type.VALUE, value, expire, false);
+        }
+
+        static Pending hash(Map<String, Object> map, long expire) {
+            return new Pending(Type.HASH, new LinkedHashMap<>(map), expire, false);
+        }
+
+        /**
+         * 按先后顺序合并同一个key的两次写入，hash合并字段，其他类型以新的为准.
+         */
+        static Pending combine(Pending old, Pending update) {
+            return update.type == Type.HASH ? merge(old, update) : update;
+        }
+
+        @SuppressWarnings("unchecked")
+        static Pending merge(Pending old, Pending update) {
+            if (old.type != Type.HASH) {
+                return new Pending(Type.HASH, update.value, update.expire, true);
+            }
+            Map<String, Object> merged = new LinkedHashMap<>((Map<String, Object>) old.value);
+            merged.putAll((Map<String, Object>) update.value);
+            return new Pending(Type.HASH, merged, update.expire, old.replace);
+        }
+    }
+}
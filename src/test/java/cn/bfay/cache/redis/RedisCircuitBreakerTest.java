@@ -0,0 +1,69 @@
+package cn.bfay.cache.redis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * RedisCircuitBreaker测试，用map代替redis.
+ *
+ * @author wangjiannan
+ */
+class RedisCircuitBreakerTest {
+    private static final String KEY = "breaker:test";
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+
+    @Test
+    void writeDuringReplayIsQueuedBehindOlderWrites() throws Exception {
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(4, 2, 50, 1000, 100, 50, 1,
+            RedisCircuitBreaker.WritePolicy.QUEUE, 100);
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IllegalStateException.class, () -> breaker.write(KEY, () -> {
+                throw new IllegalStateException("redis down");
+            }));
+        }
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.getState());
+
+        // 打开期间的旧写操作，重放时阻塞，模拟重放与恢复后的新写操作交错
+        CountDownLatch replayStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        assertFalse(breaker.write(KEY, () -> {
+            replayStarted.countDown();
+            await(release);
+            redis.put(KEY, "old");
+        }));
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        assertEquals("probe", breaker.read(() -> "probe", () -> null));
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(replayStarted.await(5, TimeUnit.SECONDS));
+
+        assertFalse(breaker.write(KEY, () -> redis.put(KEY, "new")));
+        assertEquals(1, breaker.getPendingWriteCount());
+        release.countDown();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!"new".equals(redis.get(KEY)) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertEquals("new", redis.get(KEY));
+        assertEquals(0, breaker.getPendingWriteCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}